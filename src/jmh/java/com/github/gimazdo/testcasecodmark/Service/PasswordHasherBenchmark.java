@@ -0,0 +1,66 @@
+package com.github.gimazdo.testcasecodmark.Service;
+
+import com.github.gimazdo.testcasecodmark.Config.PasswordEncoderConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Бенчмарк хэширования паролей для разных настроек стоимости.
+ * encode и matches измеряют саму функцию хэширования, hashOnPool - хэширование через {@link PasswordHasher}
+ * вместе с передачей задачи в пул и ожиданием результата.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PasswordHasherBenchmark {
+
+    /**
+     * Алгоритм и стоимость в формате алгоритм:стоимость.
+     * Для bcrypt стоимость - логарифм количества раундов, для pbkdf2 - количество итераций.
+     */
+    @Param({"bcrypt:10", "bcrypt:12", "pbkdf2:310000"})
+    private String settings;
+
+    private static final String PASSWORD = "Passw0rd";
+
+    private PasswordEncoder passwordEncoder;
+
+    private PasswordHasher passwordHasher;
+
+    private String encodedPassword;
+
+    @Setup
+    public void setup() {
+        String[] parts = settings.split(":");
+        int cost = Integer.parseInt(parts[1]);
+        passwordEncoder = PasswordEncoderConfig.createPasswordEncoder(parts[0], cost, cost);
+        passwordHasher = new PasswordHasher(passwordEncoder, 1, 1, new SimpleMeterRegistry());
+        encodedPassword = passwordEncoder.encode(PASSWORD);
+    }
+
+    @TearDown
+    public void tearDown() {
+        passwordHasher.destroy();
+    }
+
+    @Benchmark
+    public String encode() {
+        return passwordEncoder.encode(PASSWORD);
+    }
+
+    @Benchmark
+    public boolean matches() {
+        return passwordEncoder.matches(PASSWORD, encodedPassword);
+    }
+
+    @Benchmark
+    public String hashOnPool() {
+        return passwordHasher.hash(PASSWORD);
+    }
+}
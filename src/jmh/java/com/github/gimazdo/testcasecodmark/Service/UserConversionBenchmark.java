@@ -0,0 +1,62 @@
+package com.github.gimazdo.testcasecodmark.Service;
+
+import com.github.gimazdo.testcasecodmark.Config.PasswordEncoderConfig;
+import com.github.gimazdo.testcasecodmark.Repository.RoleRepository;
+import com.github.gimazdo.testcasecodmark.Repository.UserRepository;
+import com.github.gimazdo.testcasecodmark.Util.CharacterClassPasswordPolicy;
+import com.github.gimazdo.testcasecodmark.dto.UserWithoutRoles;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Бенчмарк {@link UserServiceImpl#getAllUsersWithoutRoles()}. Пользователи читаются из БД сразу в {@link UserWithoutRoles},
+ * репозиторий заменен заглушкой, поэтому измеряется только работа сервиса без БД.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UserConversionBenchmark {
+
+    /**
+     * Количество пользователей
+     */
+    @Param({"10", "1000", "100000"})
+    private int userCount;
+
+    private UserService userService;
+
+    @Setup
+    public void setup() {
+        List<UserWithoutRoles> users = new ArrayList<>(userCount);
+        for(int i = 0; i < userCount; i++)
+        {
+            users.add(new UserWithoutRoles("Login" + i, "Name" + i));
+        }
+        UserRepository userRepository = Mockito.mock(UserRepository.class, Mockito.withSettings().stubOnly());
+        Mockito.when(userRepository.findAllUsersWithoutRoles()).thenReturn(users);
+        RoleRepository roleRepository = Mockito.mock(RoleRepository.class, Mockito.withSettings().stubOnly());
+        userService = new UserServiceImpl(userRepository, roleRepository, new RoleCache(roleRepository), CharacterClassPasswordPolicy.DEFAULT,
+                new UserCache(0, Duration.ZERO, Duration.ZERO, new SimpleMeterRegistry()),
+                new LoginFilter(userRepository, 1, 0.01), new UserChangeCounter(), new RoleMembershipIndex(userRepository),
+                new PasswordHasher(PasswordEncoderConfig.createPasswordEncoder(PasswordEncoderConfig.BCRYPT, 4, 1), 1, 1, new SimpleMeterRegistry()),
+                new CredentialCache(0, Duration.ZERO, new SimpleMeterRegistry()),
+                new UserChangeFeed(0, 0, 0, 1, Duration.ofSeconds(10), new SimpleMeterRegistry()),
+                new TransactionTemplate(Mockito.mock(PlatformTransactionManager.class)));
+    }
+
+    @Benchmark
+    public List<UserWithoutRoles> getAllUsersWithoutRoles() {
+        return userService.getAllUsersWithoutRoles();
+    }
+}
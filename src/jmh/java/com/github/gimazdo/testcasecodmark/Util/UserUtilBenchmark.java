@@ -0,0 +1,82 @@
+package com.github.gimazdo.testcasecodmark.Util;
+
+import com.github.gimazdo.testcasecodmark.Model.User;
+import com.github.gimazdo.testcasecodmark.dto.ValidationResult;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Бенчмарк проверки пароля и полей пользователя в {@link UserUtil}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UserUtilBenchmark {
+
+    /**
+     * Паттерн, который использовался до {@link CharacterClassPasswordPolicy}, для сравнения
+     */
+    private static final Pattern legacyPasswordPattern = Pattern.compile("^(?=.*[A-Z])(?=.*\\d).+$");
+
+    /**
+     * Длина пароля
+     */
+    @Param({"8", "64", "1024"})
+    private int passwordLength;
+
+    private String validPassword;
+
+    private String invalidPassword;
+
+    private User validUser;
+
+    private User invalidUser;
+
+    @Setup
+    public void setup() {
+        StringBuilder password = new StringBuilder();
+        for(int i = 0; i < passwordLength - 2; i++)
+        {
+            password.append((char) ('a' + i % 26));
+        }
+        validPassword = password + "A1";
+        invalidPassword = password + "aa";
+        validUser = new User("Login", "Name", validPassword, null);
+        invalidUser = new User(null, null, invalidPassword, null);
+    }
+
+    @Benchmark
+    public boolean checkPasswordValid() {
+        return UserUtil.checkPassword(validPassword);
+    }
+
+    @Benchmark
+    public boolean checkPasswordInvalid() {
+        return UserUtil.checkPassword(invalidPassword);
+    }
+
+    @Benchmark
+    public boolean checkPasswordLegacyRegexValid() {
+        return legacyPasswordPattern.matcher(validPassword).matches();
+    }
+
+    @Benchmark
+    public boolean checkPasswordLegacyRegexInvalid() {
+        return legacyPasswordPattern.matcher(invalidPassword).matches();
+    }
+
+    @Benchmark
+    public ValidationResult validateUserValid() {
+        return UserUtil.validateUser(validUser);
+    }
+
+    @Benchmark
+    public ValidationResult validateUserInvalid() {
+        return UserUtil.validateUser(invalidUser);
+    }
+}
@@ -0,0 +1,85 @@
+package com.github.gimazdo.testcasecodmark.dto;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Бенчмарк стоимости возврата {@link ValidationResult} в сравнении с созданием и выбросом исключения,
+ * которое использовалось раньше для ошибок валидации.
+ * Стоимость заполнения стека зависит от глубины вызова, поэтому результат создается на заданной глубине.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValidationResultBenchmark {
+
+    /**
+     * Глубина стека вызовов, на которой создается результат
+     */
+    @Param({"1", "20", "100"})
+    private int stackDepth;
+
+    @Benchmark
+    public ValidationResult success() {
+        return successAt(stackDepth);
+    }
+
+    @Benchmark
+    public ValidationResult error() {
+        return errorAt(stackDepth);
+    }
+
+    @Benchmark
+    public ValidationException legacyThrowAndCatch() {
+        try {
+            throwAt(stackDepth);
+            return null;
+        } catch (ValidationException e) {
+            return e;
+        }
+    }
+
+    private static ValidationResult successAt(int depth) {
+        if(depth > 1)
+        {
+            return successAt(depth - 1);
+        }
+        return ValidationResult.SUCCESS;
+    }
+
+    private static ValidationResult errorAt(int depth) {
+        if(depth > 1)
+        {
+            return errorAt(depth - 1);
+        }
+        return ValidationResult.error("Login занят");
+    }
+
+    private static void throwAt(int depth) throws ValidationException {
+        if(depth > 1)
+        {
+            throwAt(depth - 1);
+            return;
+        }
+        ValidationException exception = new ValidationException();
+        exception.getErrors().add("Login занят");
+        throw exception;
+    }
+
+    /**
+     * Исключение с полным стеком вызовов, как у прежнего UserServiceException
+     */
+    public static class ValidationException extends Exception {
+        private final List<String> errors = new ArrayList<>();
+
+        public List<String> getErrors() {
+            return errors;
+        }
+    }
+}
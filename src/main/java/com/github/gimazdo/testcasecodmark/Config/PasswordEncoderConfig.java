@@ -0,0 +1,84 @@
+package com.github.gimazdo.testcasecodmark.Config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.DelegatingPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.security.crypto.password.Pbkdf2PasswordEncoder;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Настройка хэширования паролей из свойств users.password.hash.*.
+ * Хэш хранится с префиксом алгоритма ({bcrypt} или {pbkdf2}), поэтому алгоритм и стоимость можно менять,
+ * не теряя возможности проверить уже сохраненные пароли.
+ * Пароли без префикса считаются сохраненными в явном виде до перехода на хэширование.
+ * Такие пароли и хэши по старым настройкам ({@link PasswordEncoder#upgradeEncoding(String)}) пересчитываются
+ * сервисом после первой успешной проверки.
+ */
+@Configuration
+public class PasswordEncoderConfig {
+
+    public static final String BCRYPT = "bcrypt";
+    public static final String PBKDF2 = "pbkdf2";
+
+    @Bean
+    public PasswordEncoder passwordEncoder(@Value("${users.password.hash.algorithm:" + BCRYPT + "}") String algorithm,
+                                           @Value("${users.password.hash.bcrypt-strength:10}") int bcryptStrength,
+                                           @Value("${users.password.hash.pbkdf2-iterations:310000}") int pbkdf2Iterations) {
+        return createPasswordEncoder(algorithm, bcryptStrength, pbkdf2Iterations);
+    }
+
+    /**
+     * Создание кодировщика паролей
+     * @param algorithm алгоритм новых хэшей: {@link #BCRYPT} или {@link #PBKDF2}
+     * @param bcryptStrength логарифм количества раундов bcrypt, от 4 до 31
+     * @param pbkdf2Iterations количество итераций PBKDF2-HMAC-SHA256
+     * @return кодировщик, который хэширует выбранным алгоритмом и проверяет хэши всех поддерживаемых алгоритмов
+     */
+    public static PasswordEncoder createPasswordEncoder(String algorithm, int bcryptStrength, int pbkdf2Iterations) {
+        Pbkdf2PasswordEncoder pbkdf2 = new Pbkdf2PasswordEncoder("", 16, pbkdf2Iterations, 256);
+        pbkdf2.setAlgorithm(Pbkdf2PasswordEncoder.SecretKeyFactoryAlgorithm.PBKDF2WithHmacSHA256);
+        Map<String, PasswordEncoder> encoders = new HashMap<>();
+        encoders.put(BCRYPT, new BCryptPasswordEncoder(bcryptStrength));
+        encoders.put(PBKDF2, pbkdf2);
+        if(!encoders.containsKey(algorithm))
+        {
+            throw new IllegalArgumentException("Неизвестный алгоритм хэширования паролей: " + algorithm);
+        }
+        DelegatingPasswordEncoder encoder = new DelegatingPasswordEncoder(algorithm, encoders);
+        encoder.setDefaultPasswordEncoderForMatches(new PlaintextPasswordEncoder());
+        return encoder;
+    }
+
+    /**
+     * Проверка паролей, сохраненных в явном виде до перехода на хэширование.
+     * Новые пароли этим кодировщиком не сохраняются: совпавший пароль хэшируется кодировщиком для новых паролей.
+     */
+    private static class PlaintextPasswordEncoder implements PasswordEncoder {
+
+        @Override
+        public String encode(CharSequence rawPassword) {
+            throw new UnsupportedOperationException("Пароли не сохраняются в явном виде");
+        }
+
+        @Override
+        public boolean matches(CharSequence rawPassword, String encodedPassword) {
+            if(rawPassword==null || encodedPassword==null)
+            {
+                return false;
+            }
+            return MessageDigest.isEqual(rawPassword.toString().getBytes(StandardCharsets.UTF_8), encodedPassword.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public boolean upgradeEncoding(String encodedPassword) {
+            return true;
+        }
+    }
+}
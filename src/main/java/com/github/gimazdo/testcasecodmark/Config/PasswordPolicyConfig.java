@@ -0,0 +1,25 @@
+package com.github.gimazdo.testcasecodmark.Config;
+
+import com.github.gimazdo.testcasecodmark.Util.CharacterClassPasswordPolicy;
+import com.github.gimazdo.testcasecodmark.Util.PasswordPolicy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Настройка правила пароля из свойств users.password.*.
+ * Значения по умолчанию совпадают с {@link CharacterClassPasswordPolicy#DEFAULT}.
+ */
+@Configuration
+public class PasswordPolicyConfig {
+
+    @Bean
+    public PasswordPolicy passwordPolicy(@Value("${users.password.min-length:1}") int minLength,
+                                         @Value("${users.password.require-uppercase:true}") boolean requireUppercase,
+                                         @Value("${users.password.require-lowercase:false}") boolean requireLowercase,
+                                         @Value("${users.password.require-digit:true}") boolean requireDigit,
+                                         @Value("${users.password.require-special:false}") boolean requireSpecial,
+                                         @Value("${users.password.error-message:" + CharacterClassPasswordPolicy.DEFAULT_ERROR_MESSAGE + "}") String errorMessage) {
+        return new CharacterClassPasswordPolicy(minLength, requireUppercase, requireLowercase, requireDigit, requireSpecial, errorMessage);
+    }
+}
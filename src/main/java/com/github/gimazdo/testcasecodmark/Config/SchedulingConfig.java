@@ -0,0 +1,12 @@
+package com.github.gimazdo.testcasecodmark.Config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Включение фоновых задач, например перестроения {@link com.github.gimazdo.testcasecodmark.Service.UserListSnapshot}
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+}
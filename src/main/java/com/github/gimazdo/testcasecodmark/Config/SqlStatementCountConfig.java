@@ -0,0 +1,31 @@
+package com.github.gimazdo.testcasecodmark.Config;
+
+import com.github.gimazdo.testcasecodmark.Metrics.SqlStatementCountInterceptor;
+import com.github.gimazdo.testcasecodmark.Metrics.SqlStatementCounter;
+import lombok.RequiredArgsConstructor;
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Подключение {@link SqlStatementCounter} к Hibernate и подсчета SQL запросов к HTTP запросам
+ */
+@Configuration
+@RequiredArgsConstructor
+public class SqlStatementCountConfig implements WebMvcConfigurer {
+
+    private final SqlStatementCountInterceptor sqlStatementCountInterceptor;
+
+    @Bean
+    public HibernatePropertiesCustomizer sqlStatementCounterCustomizer(SqlStatementCounter sqlStatementCounter) {
+        return properties -> properties.put(AvailableSettings.STATEMENT_INSPECTOR, sqlStatementCounter);
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(sqlStatementCountInterceptor);
+    }
+}
@@ -0,0 +1,74 @@
+package com.github.gimazdo.testcasecodmark.Controller;
+
+import com.github.gimazdo.testcasecodmark.Service.UserChangeFeed;
+import com.github.gimazdo.testcasecodmark.dto.UserChangeEvent;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * REST контроллер ленты изменений пользователей и ролей в формате server-sent events.
+ */
+@RestController
+@RequiredArgsConstructor
+public class ChangeFeedController {
+
+    private final UserChangeFeed userChangeFeed;
+
+    /**
+     * Время, через которое соединение закрывается и клиент переподключается
+     */
+    @Value("${users.change-feed.emitter-timeout:30m}")
+    private Duration emitterTimeout;
+
+    /**
+     * Подписка на изменения пользователей и ролей.
+     * Каждое событие отправляется с id из эпохи запуска и номера события и с именем, равным типу {@link UserChangeEvent.Type}.
+     * При переподключении браузер сам передает Last-Event-ID, другие клиенты могут передать id в параметре after.
+     * @param lastEventId id последнего полученного события из заголовка Last-Event-ID
+     * @param after id последнего полученного события, если заголовка нет
+     * @return поток событий {@link UserChangeEvent} в формате JSON. Если подписчиков слишком много, то 503
+     */
+    @GetMapping(value = "/changes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> changes(@RequestHeader(value = "Last-Event-ID", required = false) String lastEventId,
+                                              @RequestParam(required = false) String after) {
+        SseEmitter emitter = new SseEmitter(emitterTimeout.toMillis());
+        UserChangeFeed.Subscription subscription = userChangeFeed.subscribe(lastEventId!=null ? lastEventId : after, new UserChangeFeed.Sink() {
+            @Override
+            public void send(UserChangeEvent event) throws IOException {
+                emitter.send(SseEmitter.event()
+                        .id(userChangeFeed.eventId(event.getSequence()))
+                        .name(event.getType().name())
+                        .data(event, MediaType.APPLICATION_JSON));
+            }
+
+            @Override
+            public void close() {
+                try {
+                    emitter.complete();
+                } catch (IllegalStateException e) {
+                    // соединение уже закрыто
+                }
+            }
+        });
+        if(subscription==null)
+        {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "1").build();
+        }
+        emitter.onCompletion(subscription::cancel);
+        emitter.onTimeout(subscription::cancel);
+        emitter.onError(e -> subscription.cancel());
+        return ResponseEntity.ok(emitter);
+    }
+}
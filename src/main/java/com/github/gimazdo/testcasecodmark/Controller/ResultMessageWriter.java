@@ -0,0 +1,54 @@
+package com.github.gimazdo.testcasecodmark.Controller;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.github.gimazdo.testcasecodmark.dto.ResultMessage;
+import com.github.gimazdo.testcasecodmark.dto.ValidationResult;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Сериализация {@link ResultMessage} в ответ контроллера.
+ * Успешный ответ всегда одинаковый, поэтому он сериализуется один раз и отдается одним и тем же массивом байт.
+ * Ответы с ошибками пишутся через заранее созданный {@link ObjectWriter}.
+ */
+@Component
+public class ResultMessageWriter {
+
+    /**
+     * Сериализованный ответ {success: true}
+     */
+    private static final byte[] SUCCESS = "{\"success\":true}".getBytes(StandardCharsets.UTF_8);
+
+    private final ObjectWriter writer;
+
+    public ResultMessageWriter(ObjectMapper objectMapper) {
+        this.writer = objectMapper.writerFor(ResultMessage.class);
+    }
+
+    /**
+     * Преобразование результата проверки в ответ
+     * @param result результат работы функции сервиса
+     * @return {success: true} или {success: false, errors: {массив ошибок}} в формате JSON
+     */
+    public ResponseEntity<byte[]> write(ValidationResult result) {
+        byte[] body;
+        if(result.isSuccess())
+        {
+            body = SUCCESS;
+        }
+        else
+        {
+            try {
+                body = writer.writeValueAsBytes(new ResultMessage(false, result.getErrors()));
+            } catch (JsonProcessingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+}
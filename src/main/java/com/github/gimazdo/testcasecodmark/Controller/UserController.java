@@ -1,14 +1,38 @@
 package com.github.gimazdo.testcasecodmark.Controller;
 
+import com.github.gimazdo.testcasecodmark.Exception.PasswordHasherBusyException;
+import com.github.gimazdo.testcasecodmark.Exception.RoleMembershipIndexNotReadyException;
 import com.github.gimazdo.testcasecodmark.Model.Role;
 import com.github.gimazdo.testcasecodmark.Model.User;
-import com.github.gimazdo.testcasecodmark.Exception.UserServiceException;
+import com.github.gimazdo.testcasecodmark.Service.UserListSnapshot;
 import com.github.gimazdo.testcasecodmark.Service.UserService;
 import com.github.gimazdo.testcasecodmark.dto.UserRole;
+import com.github.gimazdo.testcasecodmark.dto.UserWithRoles;
 import com.github.gimazdo.testcasecodmark.dto.UserWithoutRoles;
+import com.github.gimazdo.testcasecodmark.dto.UsersPage;
+import com.github.gimazdo.testcasecodmark.dto.ValidationResult;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.context.request.async.AsyncWebRequest;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
 import java.util.*;
 
 /**
@@ -18,49 +42,266 @@ import java.util.*;
 @RequiredArgsConstructor
 public class UserController {
 
+    /**
+     * Через сколько пользователей выгрузка сбрасывает ответ клиенту
+     */
+    static final int EXPORT_FLUSH_ROWS = 1000;
+
     private final UserService userService;
 
+    private final ObjectMapper objectMapper;
+
+    private final ResultMessageWriter resultMessageWriter;
+
+    private final UserListSnapshot userListSnapshot;
+
     /**
-     * Функция получения списка пользователей
+     * Таймаут выгрузки пользователей
+     */
+    @Value("${users.export.timeout:30m}")
+    private Duration exportTimeout;
+
+    /**
+     * Функция получения списка пользователей.
+     * Если клиент принимает gzip (с учетом q в Accept-Encoding), то отдается готовый сжатый снимок из {@link UserListSnapshot} с ETag,
+     * а при совпадении If-None-Match - 304. Иначе список читается из БД.
+     * @param request запрос, используется для проверки Accept-Encoding и If-None-Match
      * @return список пользователей без их ролей в формате JSON
      */
     @GetMapping("/getUsers")
+    public ResponseEntity<?> getUsers(WebRequest request) {
+        UserListSnapshot.Snapshot snapshot = userListSnapshot.getCurrent();
+        if(snapshot==null || !acceptsGzip(request.getHeader(HttpHeaders.ACCEPT_ENCODING)))
+        {
+            return ResponseEntity.ok(userService.getAllUsersWithoutRoles());
+        }
+        if(request.checkNotModified(snapshot.getETag()))
+        {
+            return null;
+        }
+        return ResponseEntity.ok()
+                .eTag(snapshot.getETag())
+                .cacheControl(CacheControl.noCache())
+                .header(HttpHeaders.CONTENT_ENCODING, "gzip")
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(snapshot.getGzippedJson());
+    }
+
+    /**
+     * Проверка, принимает ли клиент gzip, по заголовку Accept-Encoding.
+     * Кодировка с q=0 не принимается. Если gzip не указан явно, то используется q для *.
+     * @param acceptEncoding значение заголовка, может быть null
+     * @return true, если gzip принимается с q больше 0
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        if(acceptEncoding==null)
+        {
+            return false;
+        }
+        Double gzipQuality = null;
+        Double anyQuality = null;
+        for(String coding: acceptEncoding.split(","))
+        {
+            String[] params = coding.split(";");
+            String name = params[0].trim();
+            double quality = 1;
+            for(int i = 1; i < params.length; i++)
+            {
+                String param = params[i].trim();
+                if(param.regionMatches(true, 0, "q=", 0, 2))
+                {
+                    try {
+                        quality = Double.parseDouble(param.substring(2).trim());
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            if(name.equalsIgnoreCase("gzip") || name.equalsIgnoreCase("x-gzip"))
+            {
+                gzipQuality = quality;
+            }
+            else if(name.equals("*"))
+            {
+                anyQuality = quality;
+            }
+        }
+        if(gzipQuality!=null)
+        {
+            return gzipQuality > 0;
+        }
+        return anyQuality!=null && anyQuality > 0;
+    }
+
+    /**
+     * Функция постраничного получения списка пользователей
+     * @param after логин последнего пользователя с предыдущей страницы. Для первой страницы не указывается.
+     * @param limit количество пользователей на странице
+     * @return список пользователей без их ролей в формате JSON, отсортированный по логину
+     */
+    @GetMapping(value = "/getUsers", params = "limit")
     @ResponseBody
-    public List<UserWithoutRoles> getUsers() {
+    public List<UserWithoutRoles> getUsersPage(@RequestParam(required = false) String after, @RequestParam int limit) {
+
+        return userService.getUsersPage(after, limit);
 
-        return userService.getAllUsersWithoutRoles();
+    }
 
+    /**
+     * Функция выгрузки всех пользователей.
+     * Пользователи пишутся в ответ по мере чтения из БД, по одному JSON объекту на строку (NDJSON).
+     * Ответ сбрасывается клиенту каждые {@link #EXPORT_FLUSH_ROWS} пользователей, а не после каждого.
+     * Таймаут асинхронной обработки задается users.export.timeout только для этого запроса.
+     * @return тело ответа, которое записывается в отдельном потоке
+     */
+    @GetMapping(value = "/exportUsers", produces = "application/x-ndjson")
+    public StreamingResponseBody exportUsers(HttpServletRequest request, HttpServletResponse response) {
+        AsyncWebRequest asyncWebRequest = WebAsyncUtils.createAsyncWebRequest(request, response);
+        asyncWebRequest.setTimeout(exportTimeout.toMillis());
+        WebAsyncUtils.getAsyncManager(request).setAsyncWebRequest(asyncWebRequest);
+        ObjectWriter writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        return out -> {
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+                generator.setRootValueSeparator(null);
+                int[] written = new int[1];
+                userService.exportUsers(user -> {
+                    try {
+                        writer.writeValue(generator, user);
+                        generator.writeRaw('\n');
+                        if(++written[0] % EXPORT_FLUSH_ROWS == 0)
+                        {
+                            generator.flush();
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+        };
     }
 
     /**
      * Получение конкретного пользователя
      * @param user пользователь, которого нужно найти. Используется класс {@link User},
      *             потому что нужна обертка, чтобы взять login из JSON.
-     * @return {@link User} со всеми его ролями.
+     * @return {@link UserWithRoles} со всеми его ролями.
      */
     @GetMapping("/getUser")
     @ResponseBody
-    public User getUser(@RequestBody User user) {
+    public UserWithRoles getUser(@RequestBody User user) {
         return userService.findByLogin(user.getLogin());
     }
 
+    /**
+     * Получение конкретного пользователя по логину из пути, чтобы ответ можно было кэшировать.
+     * ETag строится из версии пользователя. Хэша пароля в ответе нет, поэтому ответ может храниться и в общих кэшах,
+     * но перед использованием должен проверяться по ETag. Если в запросе передан If-None-Match, то сначала проверяется только версия,
+     * и при совпадении возвращается 304 без загрузки пользователя и его ролей.
+     * @param login логин пользователя
+     * @param request запрос, используется для проверки If-None-Match
+     * @return {@link UserWithRoles} со всеми его ролями, 304 если пользователь не изменился, или 404
+     */
+    @GetMapping("/users/{login}")
+    public ResponseEntity<UserWithRoles> getUserByLogin(@PathVariable String login, WebRequest request) {
+        if(request.getHeader(HttpHeaders.IF_NONE_MATCH)!=null)
+        {
+            Long version = userService.findVersion(login);
+            if(version==null)
+            {
+                return ResponseEntity.notFound().build();
+            }
+            if(request.checkNotModified(String.valueOf(version)))
+            {
+                return null;
+            }
+        }
+        UserWithRoles user = userService.findByLogin(login);
+        if(user==null)
+        {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok()
+                .eTag(String.valueOf(user.getVersion()))
+                .cacheControl(CacheControl.noCache().cachePublic())
+                .body(user);
+    }
+
+    /**
+     * Проверка роли пользователя
+     * @param login логин пользователя
+     * @param roleName название роли
+     * @return HashMap {hasRole: true/false}
+     */
+    @GetMapping("/hasRole")
+    @ResponseBody
+    public HashMap<String, Object> hasRole(@RequestParam String login, @RequestParam String roleName) {
+        HashMap<String, Object> resultMessage = new HashMap<>();
+        resultMessage.put("hasRole", userService.hasRole(login, roleName));
+        return resultMessage;
+    }
+
+    /**
+     * Постраничный поиск пользователей по ролям
+     * @param roles названия ролей через запятую
+     * @param match all - у пользователя должны быть все роли, any - хотя бы одна
+     * @param offset количество пропускаемых пользователей
+     * @param limit количество пользователей на странице
+     * @return {@link UsersPage} с логинами пользователей и общим количеством найденных
+     *      Если индекс ролей еще заполняется после запуска, то 503
+     */
+    @GetMapping("/usersByRoles")
+    @ResponseBody
+    public UsersPage usersByRoles(@RequestParam List<String> roles,
+                                  @RequestParam(defaultValue = "all") String match,
+                                  @RequestParam(defaultValue = "0") int offset,
+                                  @RequestParam(defaultValue = "100") int limit) {
+        return userService.findUsersByRoles(roles, !"any".equalsIgnoreCase(match), offset, limit);
+    }
+
     /**
      * Функция добавления пользователя
      * @param user пользователь, которого нужно добавить.
-     * @return HashMap, который хранит результат работы функции.
+     * @return JSON, который хранит результат работы функции.
      *      Если все проверки пройдены успешно {success: true}
      *      Если случилась ошибка валидации {success: false, errors: {массив ошибок}}
      */
     @PostMapping("/addUser")
     @ResponseBody
-    public HashMap<String, Object> addUser(@RequestBody User user) {
+    public ResponseEntity<byte[]> addUser(@RequestBody User user) {
+        return resultMessageWriter.write(userService.addUser(user));
+    }
+
+    /**
+     * Проверка логина и пароля без выдачи пользователя и его пароля
+     * @param user логин и пароль. Остальные поля не используются.
+     * @return JSON, который хранит результат работы функции.
+     *      Если логин и пароль верны {success: true}
+     *      Иначе {success: false, errors: {массив ошибок}}
+     */
+    @PostMapping("/authenticate")
+    @ResponseBody
+    public ResponseEntity<byte[]> authenticate(@RequestBody User user) {
+        return resultMessageWriter.write(userService.authenticate(user.getLogin(), user.getPassword()));
+    }
+
+    /**
+     * Функция массового добавления пользователей
+     * @param users список пользователей, которых нужно добавить.
+     * @return HashMap, который хранит результат работы функции.
+     *      Если все пользователи добавлены {success: true, imported: количество}
+     *      Если у части пользователей ошибки валидации {success: false, imported: количество,
+     *      errors: {номер пользователя в списке: массив ошибок}}. Пользователи без ошибок при этом добавляются.
+     */
+    @PostMapping("/importUsers")
+    @ResponseBody
+    public HashMap<String, Object> importUsers(@RequestBody List<User> users) {
         HashMap<String, Object> resultMessage = new HashMap<>();
-        try {
-            userService.addUser(user);
-            resultMessage.put("success", true);
-        } catch (UserServiceException e) {
-            resultMessage.put("success", false);
-            resultMessage.put("errors", e.getErrors());
+        Map<Integer, List<String>> errors = userService.importUsers(users);
+        resultMessage.put("success", errors.isEmpty());
+        resultMessage.put("imported", users.size() - errors.size());
+        if(!errors.isEmpty()) {
+            resultMessage.put("errors", errors);
         }
         return resultMessage;
     }
@@ -68,91 +309,82 @@ public class UserController {
     /**
      * Функция обновления пользователя
      * @param user пользователь, с новыми данными, но старым login(так как логин не изменяется).
-     * @return HashMap, который хранит результат работы функции.
+     * @return JSON, который хранит результат работы функции.
      *        Если все проверки пройдены успешно {success: true}
      *        Если случилась ошибка валидации {success: false, errors: {массив ошибок}}
      */
     @PutMapping("/updateUser")
     @ResponseBody
-    public HashMap<String, Object> updateUser(@RequestBody User user)
+    public ResponseEntity<byte[]> updateUser(@RequestBody User user)
     {
-        HashMap<String, Object> resultMessage = new HashMap<>();
-        try {
-            userService.updateUser(user);
-            resultMessage.put("success", true);
-        } catch (UserServiceException e) {
-            resultMessage.put("success", false);
-            resultMessage.put("errors", e.getErrors());
-        }
-        return resultMessage;
+        return resultMessageWriter.write(userService.updateUser(user));
     }
 
     /**
      * Функция удаления пользователя.
      * @param user пользователь которого нужно удалить. Используется только поле login, так что остальным могут быть пустыми.
-     * @return HashMap, который хранит результат работы функции.
+     * @return JSON, который хранит результат работы функции.
      *      Если все проверки пройдены успешно {success: true}
      *      Если случилась ошибка валидации {success: false, errors: {массив ошибок}}
      */
     @DeleteMapping("/deleteUser")
     @ResponseBody
-    public HashMap<String, Object> deleteUser(@RequestBody User user)
+    public ResponseEntity<byte[]> deleteUser(@RequestBody User user)
     {
-        HashMap<String, Object> resultMessage = new HashMap<>();
-        try {
-            userService.deleteUser(user.getLogin());
-            resultMessage.put("success", true);
-        } catch (UserServiceException e) {
-            resultMessage.put("success", false);
-            resultMessage.put("errors", e.getErrors());
-        }
-        return resultMessage;
+        return resultMessageWriter.write(userService.deleteUser(user.getLogin()));
     }
 
     /**
      * Функция добавления новой роли.
      * @param role  роль, которую нужно добавить.
-     * @return HashMap, который хранит результат работы функции.
+     * @return JSON, который хранит результат работы функции.
      *      Если все проверки пройдены успешно и роль добавлена {success: true}
      *      Если случилась ошибка валидации {success: false, errors: {массив ошибок}}
      */
     @PostMapping("/addRole")
     @ResponseBody
-    public HashMap<String, Object> addRole(@RequestBody Role role)
+    public ResponseEntity<byte[]> addRole(@RequestBody Role role)
     {
-        HashMap<String, Object> resultMessage = new HashMap<>();
-        try {
-            userService.addRole(role);
-            resultMessage.put("success", true);
-        } catch (UserServiceException e) {
-            resultMessage.put("success", false);
-            resultMessage.put("errors", e.getErrors());
-        }
-        return resultMessage;
+        return resultMessageWriter.write(userService.addRole(role));
     }
 
     /**
      * Добавление роли пользователю
      * @param userRole хранить логин пользователя и роль которую нужно добавить
-     * @return HashMap, который хранит результат работы функции.
+     * @return JSON, который хранит результат работы функции.
      * Если все проверки пройдены успешно и роль добавлена {success: true}
      * Если случилась ошибка валидации {success: false, errors: {массив ошибок}
      */
     @PutMapping("/addRoleToUser")
     @ResponseBody
-    public HashMap<String, Object> addRoleToUser(@RequestBody UserRole userRole)
+    public ResponseEntity<byte[]> addRoleToUser(@RequestBody UserRole userRole)
     {
-        HashMap<String, Object> resultMessage = new HashMap<>();
-        try {
-            userService.addRoleToUser(userRole.getLogin(),userRole.getRoleName());
-            resultMessage.put("success", true);
-        } catch (UserServiceException e) {
-            resultMessage.put("success", false);
-            resultMessage.put("errors", e.getErrors());
-        }
-        return resultMessage;
+        return resultMessageWriter.write(userService.addRoleToUser(userRole.getLogin(),userRole.getRoleName()));
     }
 
+    /**
+     * Ответ на запрос, для которого не хватило места в очереди хэширования паролей.
+     * @return 503 с Retry-After и {success: false, errors: {массив ошибок}}
+     */
+    @ExceptionHandler(PasswordHasherBusyException.class)
+    public ResponseEntity<byte[]> passwordHasherBusy()
+    {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(resultMessageWriter.write(ValidationResult.error("Сервис перегружен, повторите запрос позже")).getBody());
+    }
 
-
+    /**
+     * Ответ на поиск по ролям, пока индекс ролей еще заполняется после запуска.
+     * @return 503 с Retry-After и {success: false, errors: {массив ошибок}}
+     */
+    @ExceptionHandler(RoleMembershipIndexNotReadyException.class)
+    public ResponseEntity<byte[]> roleMembershipIndexNotReady()
+    {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "5")
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(resultMessageWriter.write(ValidationResult.error("Индекс ролей еще заполняется, повторите запрос позже")).getBody());
+    }
 }
@@ -0,0 +1,12 @@
+package com.github.gimazdo.testcasecodmark.Exception;
+
+/**
+ * PasswordHasherBusyException - исключение, которое пробрасывается, если очередь хэширования паролей заполнена.
+ * Выбрасывается часто под нагрузкой, поэтому стек вызовов не заполняется.
+ */
+public class PasswordHasherBusyException extends RuntimeException {
+
+    public PasswordHasherBusyException() {
+        super("Очередь хэширования паролей заполнена", null, false, false);
+    }
+}
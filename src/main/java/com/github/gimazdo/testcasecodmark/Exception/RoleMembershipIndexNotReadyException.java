@@ -0,0 +1,13 @@
+package com.github.gimazdo.testcasecodmark.Exception;
+
+/**
+ * RoleMembershipIndexNotReadyException - исключение, которое пробрасывается при поиске пользователей по ролям,
+ * пока индекс ролей еще заполняется после запуска.
+ * Стек вызовов не заполняется, так как до окончания заполнения исключение выбрасывается на каждый поиск.
+ */
+public class RoleMembershipIndexNotReadyException extends RuntimeException {
+
+    public RoleMembershipIndexNotReadyException() {
+        super("Индекс ролей еще заполняется", null, false, false);
+    }
+}
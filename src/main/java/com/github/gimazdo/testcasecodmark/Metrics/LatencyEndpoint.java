@@ -0,0 +1,69 @@
+package com.github.gimazdo.testcasecodmark.Metrics;
+
+import com.github.gimazdo.testcasecodmark.Service.UserServiceImpl;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Служебный endpoint /actuator/latency с задержками в миллисекундах по endpoint контроллеров,
+ * методам сервиса и отдельно по методам репозиториев (время в БД).
+ */
+@Component
+@Endpoint(id = "latency")
+@RequiredArgsConstructor
+public class LatencyEndpoint {
+
+    private static final String HTTP_TIMER = "http.server.requests";
+
+    private static final String REPOSITORY_TIMER = "spring.data.repository.invocations";
+
+    private final MeterRegistry meterRegistry;
+
+    @ReadOperation
+    public Map<String, Map<String, Map<String, Object>>> latency() {
+        Map<String, Map<String, Map<String, Object>>> result = new TreeMap<>();
+        result.put("http", timers(HTTP_TIMER, "method", "uri", "status"));
+        result.put("service", timers(UserServiceImpl.SERVICE_TIMER, "method", "exception"));
+        result.put("db", timers(REPOSITORY_TIMER, "repository", "method", "state"));
+        return result;
+    }
+
+    /**
+     * Задержки всех таймеров с названием name
+     * @param name название таймера
+     * @param keyTags теги, значения которых через пробел составляют ключ в результате
+     */
+    private Map<String, Map<String, Object>> timers(String name, String... keyTags) {
+        Map<String, Map<String, Object>> result = new TreeMap<>();
+        for(Timer timer: meterRegistry.find(name).timers())
+        {
+            HistogramSnapshot snapshot = timer.takeSnapshot();
+            Map<String, Object> values = new TreeMap<>();
+            values.put("count", snapshot.count());
+            values.put("mean", snapshot.mean(TimeUnit.MILLISECONDS));
+            values.put("max", snapshot.max(TimeUnit.MILLISECONDS));
+            for(ValueAtPercentile percentile: snapshot.percentileValues())
+            {
+                values.put("p" + Math.round(percentile.percentile() * 100), percentile.value(TimeUnit.MILLISECONDS));
+            }
+            StringJoiner key = new StringJoiner(" ");
+            for(String tag: keyTags)
+            {
+                key.add(String.valueOf(timer.getId().getTag(tag)));
+            }
+            result.put(key.toString(), values);
+        }
+        return result;
+    }
+}
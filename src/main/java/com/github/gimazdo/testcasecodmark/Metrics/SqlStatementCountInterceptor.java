@@ -0,0 +1,36 @@
+package com.github.gimazdo.testcasecodmark.Metrics;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Подсчет SQL запросов на каждый HTTP запрос и учет их в {@link SqlStatementStats}.
+ * Учитываются только запросы потока обработки запроса, запросы асинхронных ответов
+ * (например, потоковой выгрузки /exportUsers) не учитываются, см. {@link SqlStatementCounter}.
+ */
+@Component
+@RequiredArgsConstructor
+public class SqlStatementCountInterceptor implements HandlerInterceptor {
+
+    private final SqlStatementCounter sqlStatementCounter;
+
+    private final SqlStatementStats sqlStatementStats;
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        sqlStatementCounter.reset();
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        String path = pattern != null ? pattern.toString() : request.getRequestURI();
+        sqlStatementStats.record(request.getMethod() + " " + path, sqlStatementCounter.getCount());
+    }
+}
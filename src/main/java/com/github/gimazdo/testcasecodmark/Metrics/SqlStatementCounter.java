@@ -0,0 +1,37 @@
+package com.github.gimazdo.testcasecodmark.Metrics;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.springframework.stereotype.Component;
+
+/**
+ * Счетчик SQL запросов, которые Hibernate выполняет в текущем потоке.
+ * Подключается к Hibernate как {@link StatementInspector}, сам SQL не изменяет.
+ * Запросы, выполненные в других потоках, в счетчик текущего потока не попадают. Например, запросы
+ * {@link org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody} в /exportUsers выполняются
+ * в потоке асинхронной обработки и не учитываются в {@link SqlStatementCountInterceptor}.
+ */
+@Component
+public class SqlStatementCounter implements StatementInspector {
+
+    private static final ThreadLocal<int[]> count = ThreadLocal.withInitial(() -> new int[1]);
+
+    @Override
+    public String inspect(String sql) {
+        count.get()[0]++;
+        return sql;
+    }
+
+    /**
+     * Обнуление счетчика текущего потока
+     */
+    public void reset() {
+        count.get()[0] = 0;
+    }
+
+    /**
+     * @return количество SQL запросов в текущем потоке после последнего {@link #reset()}
+     */
+    public int getCount() {
+        return count.get()[0];
+    }
+}
@@ -0,0 +1,68 @@
+package com.github.gimazdo.testcasecodmark.Metrics;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Статистика количества SQL запросов по endpoint.
+ * Если запрос к endpoint выполнил больше SQL запросов, чем users.sql.warn-threshold, то пишется предупреждение в лог.
+ */
+@Component
+@Slf4j
+public class SqlStatementStats {
+
+    private final Map<String, EndpointStats> endpoints = new ConcurrentHashMap<>();
+
+    /**
+     * Порог количества SQL запросов на один HTTP запрос
+     */
+    @Value("${users.sql.warn-threshold:10}")
+    private int warnThreshold;
+
+    /**
+     * Учет HTTP запроса к endpoint
+     * @param endpoint метод и путь endpoint
+     * @param statements количество SQL запросов
+     */
+    public void record(String endpoint, int statements) {
+        endpoints.computeIfAbsent(endpoint, e -> new EndpointStats()).record(statements);
+        if(statements > warnThreshold)
+        {
+            log.warn("{} executed {} SQL statements, threshold is {}", endpoint, statements, warnThreshold);
+        }
+    }
+
+    /**
+     * @return статистика по endpoint {endpoint: {requests, statements, max}}
+     */
+    public Map<String, Map<String, Long>> snapshot() {
+        Map<String, Map<String, Long>> result = new HashMap<>();
+        endpoints.forEach((endpoint, stats) -> {
+            Map<String, Long> values = new HashMap<>();
+            values.put("requests", stats.requests.sum());
+            values.put("statements", stats.statements.sum());
+            values.put("max", stats.max.get());
+            result.put(endpoint, values);
+        });
+        return result;
+    }
+
+    private static class EndpointStats {
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder statements = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        private void record(int count) {
+            requests.increment();
+            statements.add(count);
+            max.accumulate(count);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.github.gimazdo.testcasecodmark.Metrics;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.github.gimazdo.testcasecodmark.Service.RoleCache;
+import com.github.gimazdo.testcasecodmark.Service.UserCache;
+import lombok.RequiredArgsConstructor;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.stereotype.Component;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Служебный endpoint /actuator/stats со статистикой кэшей и SQL запросов.
+ * Отдельный раздел доступен по /actuator/stats/{раздел}: roleCache, userCache, sql, secondLevelCache.
+ */
+@Component
+@Endpoint(id = "stats")
+@RequiredArgsConstructor
+public class StatsEndpoint {
+
+    private final RoleCache roleCache;
+
+    private final SqlStatementStats sqlStatementStats;
+
+    private final UserCache userCache;
+
+    private final EntityManagerFactory entityManagerFactory;
+
+    @ReadOperation
+    public Map<String, Object> stats() {
+        Map<String, Object> result = new TreeMap<>();
+        result.put("roleCache", roleCache());
+        result.put("userCache", userCache());
+        result.put("sql", sqlStatementStats.snapshot());
+        result.put("secondLevelCache", secondLevelCache());
+        return result;
+    }
+
+    /**
+     * Один раздел статистики
+     * @param section название раздела
+     * @return статистика раздела. Если раздела нет, то null и 404
+     */
+    @ReadOperation
+    public Object section(@Selector String section) {
+        switch (section)
+        {
+            case "roleCache":
+                return roleCache();
+            case "userCache":
+                return userCache();
+            case "sql":
+                return sqlStatementStats.snapshot();
+            case "secondLevelCache":
+                return secondLevelCache();
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Статистика кэша ролей
+     * @return {size: количество ролей в кэше, hits: попадания, misses: промахи}
+     */
+    private Map<String, Object> roleCache() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("size", roleCache.size());
+        stats.put("hits", roleCache.getHits());
+        stats.put("misses", roleCache.getMisses());
+        return stats;
+    }
+
+    /**
+     * Статистика кэша пользователей
+     * @return {size: количество пользователей в кэше, hits: попадания, misses: промахи,
+     *      hitRate: доля попаданий, evictions: количество вытесненных записей}
+     */
+    private Map<String, Object> userCache() {
+        CacheStats cacheStats = userCache.stats();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("size", userCache.size());
+        stats.put("hits", cacheStats.hitCount());
+        stats.put("misses", cacheStats.missCount());
+        stats.put("hitRate", cacheStats.hitRate());
+        stats.put("evictions", cacheStats.evictionCount());
+        return stats;
+    }
+
+    /**
+     * Статистика кэша второго уровня Hibernate по регионам
+     * @return {регион: {hits: попадания, misses: промахи, puts: записи в кэш, size: количество элементов в памяти}}
+     */
+    private Map<String, Map<String, Long>> secondLevelCache() {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        Map<String, Map<String, Long>> regions = new TreeMap<>();
+        for(String regionName: statistics.getSecondLevelCacheRegionNames())
+        {
+            CacheRegionStatistics regionStatistics = statistics.getDomainDataRegionStatistics(regionName);
+            Map<String, Long> stats = new HashMap<>();
+            stats.put("hits", regionStatistics.getHitCount());
+            stats.put("misses", regionStatistics.getMissCount());
+            stats.put("puts", regionStatistics.getPutCount());
+            stats.put("size", regionStatistics.getElementCountInMemory());
+            regions.put(regionName, stats);
+        }
+        return regions;
+    }
+}
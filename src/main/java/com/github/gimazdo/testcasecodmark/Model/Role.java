@@ -4,14 +4,19 @@ import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import javax.persistence.*;
 
 
 /**
- * Role - класс, описывающий роль
+ * Role - класс, описывающий роль.
+ * Роль не изменяется после добавления, поэтому хранится в кэше второго уровня Hibernate только для чтения.
  */
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_ONLY)
 @Data
 @AllArgsConstructor
 @NoArgsConstructor
@@ -1,20 +1,22 @@
 package com.github.gimazdo.testcasecodmark.Model;
 
-import lombok.AllArgsConstructor;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.DynamicUpdate;
 
 import javax.persistence.*;
 import java.util.List;
 import java.util.Set;
 
 /**
- * User - класс, описывающий пользователя
+ * User - класс, описывающий пользователя.
+ * UPDATE формируется только из измененных колонок.
  */
 @Entity
+@DynamicUpdate
 @Data
-@AllArgsConstructor
 @NoArgsConstructor
 @Table(name = "users")
 @EqualsAndHashCode
@@ -33,19 +35,54 @@ public class User {
     @Column(nullable = false)
     private String name;
     /**
-     * Поле хранящее пароль пользователя
-     * В данном случае пароль храниться в явном виде и не шифруется
+     * Поле хранящее хэш пароля пользователя с префиксом алгоритма, например {bcrypt}$2a$10$...
+     * Пароли, сохраненные до перехода на хэширование, хранятся в явном виде без префикса.
+     * Хэш вычисляется через {@link com.github.gimazdo.testcasecodmark.Service.PasswordHasher}.
      */
     @Column(nullable = false)
     private String password;
 
     /**
      * Поле хранящее роли пользователя
-     * Используется {@link Set} так как у пользователя не может быть 2 одинаковые роли
+     * Используется {@link Set} так как у пользователя не может быть 2 одинаковые роли.
      */
     @ManyToMany(fetch = FetchType.LAZY)
     @JoinTable(name = "users_roles", joinColumns = @JoinColumn(name = "user_id"), inverseJoinColumns = @JoinColumn(name = "role_id"))
     private Set<Role> roles;
 
+    /**
+     * Поле хранящее версию пользователя. Увеличивается при каждом изменении пользователя или его ролей,
+     * используется для оптимистической блокировки и как ETag.
+     * Начальная версия берется из времени создания, см. {@link #seedVersion()}.
+     */
+    @Version
+    @JsonIgnore
+    @Column(columnDefinition = "bigint not null default 0")
+    private long version;
+
+    /**
+     * Конструктор нового пользователя
+     */
+    public User(String login, String name, String password, Set<Role> roles) {
+        this.login = login;
+        this.name = name;
+        this.password = password;
+        this.roles = roles;
+    }
+
+    /**
+     * Начальная версия нового пользователя - время создания в миллисекундах, сдвинутое на 20 бит.
+     * Если бы версия начиналась с 0, то удаленный и заново созданный с тем же логином пользователь получил бы
+     * уже выданный клиентам ETag. Hibernate не заменяет неотрицательную версию при сохранении, а до этого
+     * момента версия 0 нужна, чтобы пользователь считался новым.
+     */
+    @PrePersist
+    void seedVersion() {
+        if(version==0)
+        {
+            version = System.currentTimeMillis() << 20;
+        }
+    }
+
 
 }
@@ -4,7 +4,12 @@ import com.github.gimazdo.testcasecodmark.Model.Role;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
+
 @Repository
 public interface RoleRepository extends JpaRepository<Role,Long> {
     Role findByName(String roleName);
+
+    List<Role> findAllByNameIn(Collection<String> roleNames);
 }
@@ -1,10 +1,181 @@
 package com.github.gimazdo.testcasecodmark.Repository;
 
 import com.github.gimazdo.testcasecodmark.Model.User;
+import com.github.gimazdo.testcasecodmark.dto.UserRole;
+import com.github.gimazdo.testcasecodmark.dto.UserWithoutRoles;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.QueryHint;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.QueryHints.HINT_NATIVE_SPACES;
+import static org.hibernate.jpa.QueryHints.HINT_READONLY;
 
 @Repository
-public interface UserRepository extends JpaRepository<User, String> {
+public interface UserRepository extends JpaRepository<User, String>, UserRepositoryCustom {
+    /**
+     * Размер порции, которую драйвер читает из БД при потоковом чтении
+     */
+    int STREAM_FETCH_SIZE = 1000;
+
+    /**
+     * Таблицы, которые изменяют native запросы. Без них Hibernate после native запроса очищает весь кэш второго уровня,
+     * включая кэш {@link com.github.gimazdo.testcasecodmark.Model.Role}. Пользователи и их роли в кэше не хранятся,
+     * поэтому по этим таблицам ничего не очищается.
+     */
+    String USERS_TABLE = "users";
+    String USERS_ROLES_TABLE = "users_roles";
+
     User findUserByLogin(String login);
+
+    /**
+     * Поиск пользователя вместе с его ролями одним запросом
+     */
+    @EntityGraph(attributePaths = "roles")
+    User findWithRolesByLogin(String login);
+
+    /**
+     * Добавление роли пользователю, если у него еще нет этой роли.
+     * Insert ignore пропускает не только дубликат, но и нарушение внешнего ключа, поэтому при 0 нужно отдельно
+     * проверить, что пользователь еще существует.
+     * @return 1 - роль добавлена, 0 - роль уже была у пользователя или пользователя уже нет
+     */
+    @Modifying
+    @QueryHints(@QueryHint(name = HINT_NATIVE_SPACES, value = USERS_ROLES_TABLE))
+    @Query(value = "insert ignore into users_roles (user_id, role_id) values (:login, :roleId)", nativeQuery = true)
+    int insertRoleIfAbsent(@Param("login") String login, @Param("roleId") Long roleId);
+
+    /**
+     * Увеличение версии пользователя после изменения его ролей в обход сущности
+     */
+    @Modifying
+    @Query("update User u set u.version = u.version + 1 where u.login = :login")
+    int incrementVersion(@Param("login") String login);
+
+    /**
+     * Получение версии пользователя без загрузки сущности и ролей
+     * @return версия пользователя. Если пользователя не существует, то null
+     */
+    @Query("select u.version from User u where u.login = :login")
+    Long findVersionByLogin(@Param("login") String login);
+
+    /**
+     * Получение логина в том виде, в котором он сохранен в БД, без загрузки сущности и ролей.
+     * Колонка users.login сравнивается без учета регистра, поэтому сохраненный логин может отличаться от переданного.
+     * @return сохраненный логин. Если пользователя не существует, то null
+     */
+    @Query("select u.login from User u where u.login = :login")
+    String findStoredLogin(@Param("login") String login);
+
+    /**
+     * Получение хэша пароля пользователя без загрузки сущности и ролей
+     * @return хэш пароля. Если пользователя не существует, то null
+     */
+    @Query("select u.password from User u where u.login = :login")
+    String findPasswordByLogin(@Param("login") String login);
+
+    /**
+     * Замена хэша пароля, если он не изменился с момента чтения. Версия увеличивается, так как хэш есть в ответе
+     * {@link com.github.gimazdo.testcasecodmark.dto.UserWithRoles}.
+     * Используется для перехэширования пароля по текущим настройкам после успешной проверки.
+     * @return 1 - хэш заменен, 0 - пароль уже изменен или пользователь удален
+     */
+    @Transactional
+    @Modifying
+    @Query("update User u set u.password = :newPassword, u.version = u.version + 1 where u.login = :login and u.password = :oldPassword")
+    int updatePasswordIfUnchanged(@Param("login") String login, @Param("oldPassword") String oldPassword, @Param("newPassword") String newPassword);
+
+    /**
+     * Удаление всех ролей пользователя из users_roles.
+     * @return количество удаленных строк
+     */
+    @Modifying
+    @QueryHints(@QueryHint(name = HINT_NATIVE_SPACES, value = USERS_ROLES_TABLE))
+    @Query(value = "delete from users_roles where user_id = :login", nativeQuery = true)
+    int deleteRolesOfUser(@Param("login") String login);
+
+    /**
+     * Удаление пользователя по логину без загрузки сущности. Роли пользователя должны быть удалены заранее
+     * через {@link #deleteRolesOfUser(String)}. Запрос native, так как JPQL удаление выполняет еще один запрос
+     * удаления строк users_roles.
+     * @return 1 - пользователь удален, 0 - пользователя не существует
+     */
+    @Modifying
+    @QueryHints(@QueryHint(name = HINT_NATIVE_SPACES, value = USERS_TABLE))
+    @Query(value = "delete from users where login = :login", nativeQuery = true)
+    int deleteByLoginReturningCount(@Param("login") String login);
+
+    /**
+     * Поиск уже занятых логинов из переданных
+     */
+    @Query("select u.login from User u where u.login in :logins")
+    List<String> findExistingLogins(@Param("logins") Collection<String> logins);
+
+    /**
+     * Все пользователи без ролей. Выбираются только login и name, сущности {@link User} не создаются.
+     */
+    @Query("select new com.github.gimazdo.testcasecodmark.dto.UserWithoutRoles(u.login, u.name) from User u")
+    List<UserWithoutRoles> findAllUsersWithoutRoles();
+
+    /**
+     * Первая страница пользователей, отсортированных по логину.
+     * Выбираются только login и name, сущности {@link User} не создаются.
+     */
+    @Query("select new com.github.gimazdo.testcasecodmark.dto.UserWithoutRoles(u.login, u.name) from User u order by u.login")
+    List<UserWithoutRoles> findFirstPage(Pageable pageable);
+
+    /**
+     * Следующая страница пользователей, логин которых больше {@code after} (keyset пагинация).
+     */
+    @Query("select new com.github.gimazdo.testcasecodmark.dto.UserWithoutRoles(u.login, u.name) from User u where u.login > :after order by u.login")
+    List<UserWithoutRoles> findPageAfter(@Param("after") String after, Pageable pageable);
+
+    /**
+     * Потоковое чтение всех пользователей без ролей.
+     * Строки читаются порциями по {@link #STREAM_FETCH_SIZE}, сущности {@link User} в контекст не попадают.
+     * Поток нужно закрывать и читать внутри транзакции.
+     */
+    @QueryHints({
+            @QueryHint(name = HINT_FETCH_SIZE, value = "" + STREAM_FETCH_SIZE),
+            @QueryHint(name = HINT_READONLY, value = "true")
+    })
+    @Query("select new com.github.gimazdo.testcasecodmark.dto.UserWithoutRoles(u.login, u.name) from User u")
+    Stream<UserWithoutRoles> streamAllUsersWithoutRoles();
+
+    /**
+     * Потоковое чтение всех логинов. Поток нужно закрывать и читать внутри транзакции.
+     */
+    @QueryHints({
+            @QueryHint(name = HINT_FETCH_SIZE, value = "" + STREAM_FETCH_SIZE),
+            @QueryHint(name = HINT_READONLY, value = "true")
+    })
+    @Query("select u.login from User u")
+    Stream<String> streamAllLogins();
+
+    /**
+     * Потоковое чтение всех пар логин - роль. Поток нужно закрывать и читать внутри транзакции.
+     */
+    @QueryHints({
+            @QueryHint(name = HINT_FETCH_SIZE, value = "" + STREAM_FETCH_SIZE),
+            @QueryHint(name = HINT_READONLY, value = "true")
+    })
+    @Query("select new com.github.gimazdo.testcasecodmark.dto.UserRole(r.name, u.login) from User u join u.roles r")
+    Stream<UserRole> streamAllUserRoles();
+
+    /**
+     * Проверка роли пользователя в БД, без загрузки пользователя
+     */
+    @Query("select count(u) > 0 from User u join u.roles r where u.login = :login and r.name = :roleName")
+    boolean hasRole(@Param("login") String login, @Param("roleName") String roleName);
 }
@@ -0,0 +1,41 @@
+package com.github.gimazdo.testcasecodmark.Repository;
+
+import com.github.gimazdo.testcasecodmark.Model.User;
+import com.github.gimazdo.testcasecodmark.dto.UserWithoutRoles;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Методы {@link UserRepository}, которые нельзя выразить через Spring Data
+ */
+public interface UserRepositoryCustom {
+    /**
+     * Сохраняет новых пользователей пачками через persist, без предварительного SELECT на каждого пользователя.
+     * После каждой пачки контекст сбрасывается в БД и очищается, поэтому память не растет с количеством пользователей.
+     * Если транзакции нет, то выполняется в своей транзакции.
+     * Если логин уже занят, то будет выброшено {@link org.springframework.dao.DataIntegrityViolationException}.
+     * @param users новые пользователи
+     * @param batchSize размер пачки
+     */
+    void persistAll(List<User> users, int batchSize);
+
+    /**
+     * Сохраняет нового пользователя через persist и сразу выполняет INSERT.
+     * В отличие от save не выполняет SELECT по логину перед вставкой.
+     * Если логин уже занят, то будет выброшено {@link org.springframework.dao.DataIntegrityViolationException}.
+     * Если транзакции нет, то выполняется в своей транзакции.
+     * @param user новый пользователь
+     */
+    void persist(User user);
+
+    /**
+     * Потоковое чтение всех пользователей без ролей с размером порции, заданным для конкретного запроса.
+     * В отличие от {@link UserRepository#streamAllUsersWithoutRoles()} размер порции не общий для всех запросов:
+     * MySQL без useCursorFetch читает строки по одной только при {@link Integer#MIN_VALUE}, а H2 отрицательный размер не принимает.
+     * Поток нужно закрывать и читать внутри транзакции.
+     * @param fetchSize размер порции, который передается драйверу через Statement.setFetchSize
+     * @return поток пользователей без ролей
+     */
+    Stream<UserWithoutRoles> streamAllUsersWithoutRoles(int fetchSize);
+}
@@ -0,0 +1,52 @@
+package com.github.gimazdo.testcasecodmark.Repository;
+
+import com.github.gimazdo.testcasecodmark.Model.User;
+import com.github.gimazdo.testcasecodmark.dto.UserWithoutRoles;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.QueryHints.HINT_READONLY;
+
+/**
+ * Реализация {@link UserRepositoryCustom}
+ */
+public class UserRepositoryImpl implements UserRepositoryCustom {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    @Transactional
+    public void persistAll(List<User> users, int batchSize) {
+        for (int i = 0; i < users.size(); i++) {
+            entityManager.persist(users.get(i));
+            if ((i + 1) % batchSize == 0) {
+                entityManager.flush();
+                entityManager.clear();
+            }
+        }
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    @Override
+    @Transactional
+    public void persist(User user) {
+        entityManager.persist(user);
+        entityManager.flush();
+    }
+
+    @Override
+    public Stream<UserWithoutRoles> streamAllUsersWithoutRoles(int fetchSize) {
+        return entityManager.createQuery("select new com.github.gimazdo.testcasecodmark.dto.UserWithoutRoles(u.login, u.name) from User u",
+                        UserWithoutRoles.class)
+                .setHint(HINT_FETCH_SIZE, fetchSize)
+                .setHint(HINT_READONLY, true)
+                .getResultStream();
+    }
+}
@@ -0,0 +1,129 @@
+package com.github.gimazdo.testcasecodmark.Service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.gimazdo.testcasecodmark.Util.UserUtil;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Кэш успешных проверок пароля для {@link UserService#authenticate(String, String)}.
+ * Для каждого логина хранится HMAC-SHA256 от логина и пароля на случайном ключе, который создается при запуске
+ * и нигде не сохраняется. Сам пароль в кэше не хранится, а по значению из кэша его нельзя подобрать без ключа.
+ * Повторная проверка того же пароля не обращается ни к БД, ни к функции хэширования.
+ * При смене пароля или удалении пользователя запись удаляется через {@link #invalidate(String)}.
+ * Записи хранятся по {@link UserUtil#loginKey(String)}, поэтому удаление по логину в другом регистре
+ * удаляет и проверку, сохраненную по логину в исходном регистре.
+ */
+@Component
+public class CredentialCache {
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+    private final Cache<String, byte[]> credentials;
+
+    private final SecretKeySpec key;
+
+    /**
+     * Номер последнего удаления из кэша. Проверка, начатая до удаления, не попадает в кэш.
+     */
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public CredentialCache(@Value("${users.credential-cache.max-size:100000}") long maxSize,
+                           @Value("${users.credential-cache.ttl:2m}") Duration ttl,
+                           MeterRegistry meterRegistry) {
+        byte[] keyBytes = new byte[32];
+        new SecureRandom().nextBytes(keyBytes);
+        this.key = new SecretKeySpec(keyBytes, HMAC_ALGORITHM);
+        this.credentials = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, credentials, "credentials");
+    }
+
+    /**
+     * Проверка, что пароль логина недавно был успешно проверен
+     * @param login логин пользователя
+     * @param password пароль в явном виде
+     * @return true - пароль совпадает с последним успешно проверенным, false - записи нет или пароль другой
+     */
+    public boolean isVerified(String login, String password) {
+        String key = UserUtil.loginKey(login);
+        byte[] digest = credentials.getIfPresent(key);
+        return digest!=null && MessageDigest.isEqual(digest, digest(key, password));
+    }
+
+    /**
+     * Номер последнего удаления. Берется до чтения хэша из БД и передается в {@link #put(String, String, long)}.
+     */
+    public long currentInvalidation() {
+        return invalidations.get();
+    }
+
+    /**
+     * Сохранение успешной проверки пароля. Если после начала проверки из кэша что-то удалялось,
+     * то запись сразу удаляется, так как проверка могла быть выполнена по старому хэшу.
+     * @param login логин пользователя
+     * @param password пароль в явном виде
+     * @param invalidation номер последнего удаления на момент начала проверки
+     */
+    public void put(String login, String password, long invalidation) {
+        String key = UserUtil.loginKey(login);
+        byte[] digest = digest(key, password);
+        credentials.put(key, digest);
+        if(invalidations.get()!=invalidation)
+        {
+            credentials.asMap().remove(key, digest);
+        }
+    }
+
+    /**
+     * Удаление проверенного пароля пользователя
+     * @param login логин пользователя
+     */
+    public void invalidate(String login) {
+        if(login==null)
+        {
+            return;
+        }
+        invalidations.incrementAndGet();
+        credentials.invalidate(UserUtil.loginKey(login));
+    }
+
+    /**
+     * Очистка кэша
+     */
+    public void invalidateAll() {
+        invalidations.incrementAndGet();
+        credentials.invalidateAll();
+    }
+
+    public long size() {
+        return credentials.estimatedSize();
+    }
+
+    private byte[] digest(String login, String password) {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(key);
+            mac.update(login.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            return mac.doFinal(password.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.github.gimazdo.testcasecodmark.Service;
+
+import com.github.gimazdo.testcasecodmark.Repository.UserRepository;
+import com.github.gimazdo.testcasecodmark.Util.CountingBloomFilter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.stream.Stream;
+
+/**
+ * Фильтр Блума существующих логинов, чтобы не искать в БД логин, который точно свободен.
+ * Заполняется при старте приложения потоковым чтением таблицы users, затем обновляется при добавлении и удалении.
+ * Пока фильтр не заполнен, любой логин считается возможно занятым.
+ */
+@Component
+@Slf4j
+public class LoginFilter {
+
+    private final UserRepository userRepository;
+
+    private final CountingBloomFilter filter;
+
+    private volatile boolean ready;
+
+    public LoginFilter(UserRepository userRepository,
+                       @Value("${users.login-filter.expected-logins:5000000}") long expectedLogins,
+                       @Value("${users.login-filter.false-positive-probability:0.01}") double falsePositiveProbability) {
+        this.userRepository = userRepository;
+        this.filter = new CountingBloomFilter(expectedLogins, falsePositiveProbability);
+    }
+
+    /**
+     * Заполнение фильтра всеми логинами из БД
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional(readOnly = true)
+    public void build() {
+        long count = 0;
+        try (Stream<String> logins = userRepository.streamAllLogins()) {
+            for(String login: (Iterable<String>) logins::iterator)
+            {
+                filter.add(login);
+                count++;
+            }
+        }
+        ready = true;
+        log.info("Login filter built with {} logins", count);
+    }
+
+    /**
+     * @return false - логин точно свободен, true - логин может быть занят и его нужно проверить в БД
+     */
+    public boolean mightExist(String login) {
+        return !ready || filter.mightContain(login);
+    }
+
+    public void add(String login) {
+        filter.add(login);
+    }
+
+    public void remove(String login) {
+        filter.remove(login);
+    }
+
+    /**
+     * Удаление всех логинов из фильтра
+     */
+    public void clear() {
+        filter.clear();
+    }
+}
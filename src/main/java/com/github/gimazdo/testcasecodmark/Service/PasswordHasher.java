@@ -0,0 +1,198 @@
+package com.github.gimazdo.testcasecodmark.Service;
+
+import com.github.gimazdo.testcasecodmark.Exception.PasswordHasherBusyException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Хэширование и проверка паролей на отдельном ограниченном пуле потоков.
+ * Медленная функция хэширования не выполняется на потоках Tomcat: одновременно хэшируется не больше
+ * users.password.hash.threads паролей, еще users.password.hash.queue-capacity ждут в очереди.
+ * Если очередь заполнена, сразу выбрасывается {@link PasswordHasherBusyException}, запрос не ждет.
+ * Время хэширования публикуется в метрике {@link #HASH_TIMER}, состояние пула - в метриках executor с именем {@link #EXECUTOR_NAME}.
+ */
+@Component
+public class PasswordHasher implements DisposableBean {
+    /**
+     * Название метрики времени хэширования и проверки пароля
+     */
+    public static final String HASH_TIMER = "user.password.hash";
+
+    /**
+     * Название пула потоков в метриках executor.*
+     */
+    public static final String EXECUTOR_NAME = "passwordHasher";
+
+    private final PasswordEncoder passwordEncoder;
+    private final ThreadPoolExecutor executor;
+    private final int threads;
+    private final Timer hashTimer;
+    private final Timer matchesTimer;
+    private final Counter rejected;
+
+    /**
+     * Хэш случайного пароля, с которым сравнивается пароль несуществующего пользователя.
+     * Вычисляется при первой такой проверке
+     */
+    private volatile String dummyHash;
+
+    public PasswordHasher(PasswordEncoder passwordEncoder,
+                          @Value("${users.password.hash.threads:2}") int threads,
+                          @Value("${users.password.hash.queue-capacity:32}") int queueCapacity,
+                          MeterRegistry meterRegistry) {
+        this.passwordEncoder = passwordEncoder;
+        this.threads = threads;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> {
+                    Thread thread = new Thread(r, "password-hasher-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        new ExecutorServiceMetrics(executor, EXECUTOR_NAME, Tags.empty()).bindTo(meterRegistry);
+        this.hashTimer = Timer.builder(HASH_TIMER).tag("operation", "hash").register(meterRegistry);
+        this.matchesTimer = Timer.builder(HASH_TIMER).tag("operation", "matches").register(meterRegistry);
+        this.rejected = Counter.builder(HASH_TIMER + ".rejected").register(meterRegistry);
+    }
+
+    /**
+     * Хэширование пароля
+     * @param rawPassword пароль в явном виде
+     * @return хэш пароля с префиксом алгоритма
+     * @throws PasswordHasherBusyException если очередь хэширования заполнена
+     */
+    public String hash(String rawPassword) {
+        return await(submit(() -> passwordEncoder.encode(rawPassword), hashTimer));
+    }
+
+    /**
+     * Хэширование списка паролей. В очередь одновременно ставится не больше паролей, чем потоков в пуле,
+     * поэтому большой список не занимает всю очередь.
+     * @param rawPasswords пароли в явном виде
+     * @return хэши паролей в том же порядке
+     * @throws PasswordHasherBusyException если очередь хэширования заполнена
+     */
+    public List<String> hashAll(List<String> rawPasswords) {
+        List<String> hashes = new ArrayList<>(rawPasswords.size());
+        for(int from = 0; from < rawPasswords.size(); from += threads)
+        {
+            List<Future<String>> window = new ArrayList<>();
+            for(String rawPassword: rawPasswords.subList(from, Math.min(from + threads, rawPasswords.size())))
+            {
+                window.add(submit(() -> passwordEncoder.encode(rawPassword), hashTimer));
+            }
+            for(Future<String> hash: window)
+            {
+                hashes.add(await(hash));
+            }
+        }
+        return hashes;
+    }
+
+    /**
+     * Проверка пароля.
+     * Если хэша нет (пользователя не существует), то пароль все равно сравнивается со случайным хэшем,
+     * поэтому по времени ответа нельзя узнать, существует ли логин.
+     * @param rawPassword пароль в явном виде
+     * @param encodedPassword сохраненный хэш пароля
+     * @return true - пароль совпадает с хэшем, false - не совпадает или хэша нет
+     * @throws PasswordHasherBusyException если очередь хэширования заполнена
+     */
+    public boolean matches(String rawPassword, String encodedPassword) {
+        if(rawPassword==null)
+        {
+            return false;
+        }
+        if(encodedPassword==null)
+        {
+            return await(submit(() -> {
+                passwordEncoder.matches(rawPassword, dummyHash());
+                return false;
+            }, matchesTimer));
+        }
+        return await(submit(() -> passwordEncoder.matches(rawPassword, encodedPassword), matchesTimer));
+    }
+
+    /**
+     * Проверка, что хэш нужно пересчитать по текущим настройкам: пароль сохранен в явном виде,
+     * другим алгоритмом или с меньшей стоимостью. Функция хэширования не вызывается, поэтому пул не используется.
+     * @param encodedPassword сохраненный хэш пароля
+     * @return true - после успешной проверки пароль нужно захэшировать заново
+     */
+    public boolean needsUpgrade(String encodedPassword) {
+        return encodedPassword!=null && passwordEncoder.upgradeEncoding(encodedPassword);
+    }
+
+    private String dummyHash() {
+        String hash = dummyHash;
+        if(hash==null)
+        {
+            synchronized (this) {
+                hash = dummyHash;
+                if(hash==null)
+                {
+                    hash = passwordEncoder.encode(UUID.randomUUID().toString());
+                    dummyHash = hash;
+                }
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Постановка задачи в очередь пула. Время выполнения задачи записывается в timer.
+     */
+    private <T> Future<T> submit(Callable<T> task, Timer timer) {
+        try {
+            return executor.submit(() -> timer.recordCallable(task));
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw new PasswordHasherBusyException();
+        }
+    }
+
+    /**
+     * Ожидание результата задачи. Исключение задачи пробрасывается как есть.
+     */
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof RuntimeException)
+            {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,148 @@
+package com.github.gimazdo.testcasecodmark.Service;
+
+import com.github.gimazdo.testcasecodmark.Model.Role;
+import com.github.gimazdo.testcasecodmark.Repository.RoleRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Кэш ролей по названию перед {@link RoleRepository#findByName(String)}.
+ * Роли почти не меняются, поэтому кэш заполняется при старте приложения и дополняется при добавлении роли.
+ * Размер кэша ограничен, роли сверх лимита всегда ищутся в БД.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class RoleCache {
+    private final RoleRepository roleRepository;
+
+    private final Map<String, Role> roles = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Максимальное количество ролей в кэше
+     */
+    @Value("${users.role-cache.max-size:1024}")
+    private int maxSize;
+
+    /**
+     * Загрузка всех ролей в кэш при старте приложения
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void preload() {
+        roleRepository.findAll().forEach(this::put);
+        log.info("Role cache preloaded with {} roles", roles.size());
+    }
+
+    /**
+     * Поиск роли по названию. Если роли нет в кэше, то она ищется в БД и кладется в кэш.
+     * @param name название роли
+     * @return {@link Role} или null, если роли не существует
+     */
+    public Role findByName(String name) {
+        if(name==null)
+        {
+            return null;
+        }
+        Role role = roles.get(name);
+        if(role!=null)
+        {
+            hits.increment();
+            return role;
+        }
+        misses.increment();
+        role = roleRepository.findByName(name);
+        if(role!=null)
+        {
+            put(name, role);
+        }
+        return role;
+    }
+
+    /**
+     * Поиск нескольких ролей по названиям. Роли, которых нет в кэше, ищутся в БД одним запросом.
+     * @param names названия ролей
+     * @return найденные роли по названию. Несуществующих ролей в результате нет.
+     */
+    public Map<String, Role> findAllByName(Collection<String> names) {
+        Map<String, Role> found = new HashMap<>();
+        Set<String> missing = new HashSet<>();
+        for(String name: names)
+        {
+            Role role = name==null ? null : roles.get(name);
+            if(role!=null)
+            {
+                found.put(name, role);
+            }
+            else if(name!=null)
+            {
+                missing.add(name);
+            }
+        }
+        hits.add(found.size());
+        misses.add(missing.size());
+        if(!missing.isEmpty())
+        {
+            for(Role role: roleRepository.findAllByNameIn(missing))
+            {
+                found.put(role.getName(), role);
+                put(role);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Добавление или обновление роли в кэше
+     * @param role роль
+     */
+    public void put(Role role) {
+        if(role!=null && role.getName()!=null)
+        {
+            put(role.getName(), role);
+        }
+    }
+
+    private void put(String name, Role role) {
+        if(roles.size() < maxSize || roles.containsKey(name))
+        {
+            roles.put(name, role);
+        }
+    }
+
+    /**
+     * Очистка кэша и счетчиков
+     */
+    public void clear() {
+        roles.clear();
+        hits.reset();
+        misses.reset();
+    }
+
+    public int size() {
+        return roles.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+}
@@ -0,0 +1,276 @@
+package com.github.gimazdo.testcasecodmark.Service;
+
+import com.github.gimazdo.testcasecodmark.Repository.UserRepository;
+import com.github.gimazdo.testcasecodmark.dto.UserRole;
+import com.github.gimazdo.testcasecodmark.dto.UsersPage;
+import lombok.extern.slf4j.Slf4j;
+import org.roaringbitmap.PeekableIntIterator;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * Индекс принадлежности пользователей к ролям в памяти.
+ * Каждому пользователю выдается плотный числовой id, а каждой роли соответствует сжатый битовый набор
+ * ({@link RoaringBitmap}) id ее пользователей. Id удаленного пользователя выдается следующему добавленному,
+ * поэтому пространство id не растет при добавлении и удалении пользователей. Проверка роли - поиск в одном наборе,
+ * поиск пользователей с несколькими ролями - пересечение или объединение наборов.
+ * Заполняется при старте приложения потоковым чтением users_roles, затем обновляется сервисом после коммита изменений.
+ * Пока индекс не заполнен, {@link #isReady()} возвращает false и проверки нужно выполнять в БД.
+ * Изменения, которые приходят во время заполнения, откладываются и применяются по порядку после чтения users_roles,
+ * поэтому удаление, закоммиченное во время чтения, не будет отменено строками, прочитанными до него.
+ */
+@Component
+@Slf4j
+public class RoleMembershipIndex {
+
+    private final UserRepository userRepository;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Map<String, Integer> idsByLogin = new HashMap<>();
+
+    private final List<String> loginsById = new ArrayList<>();
+
+    /**
+     * Id удаленных пользователей, которые можно выдать снова
+     */
+    private final Deque<Integer> freeIds = new ArrayDeque<>();
+
+    private final Map<String, RoaringBitmap> usersByRole = new HashMap<>();
+
+    /**
+     * Изменения, пришедшие до окончания заполнения. Изменяется под блокировкой записи
+     */
+    private final List<Runnable> pending = new ArrayList<>();
+
+    private volatile boolean ready;
+
+    public RoleMembershipIndex(UserRepository userRepository) {
+        this.userRepository = userRepository;
+    }
+
+    /**
+     * Заполнение индекса всеми ролями пользователей из БД.
+     * После чтения под блокировкой записи применяются отложенные изменения, наборы сжимаются и индекс становится готовым.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional(readOnly = true)
+    public void build() {
+        long count = 0;
+        try (Stream<UserRole> userRoles = userRepository.streamAllUserRoles()) {
+            for(UserRole userRole: (Iterable<UserRole>) userRoles::iterator)
+            {
+                lock.writeLock().lock();
+                try {
+                    addNow(userRole.getLogin(), Collections.singleton(userRole.getRoleName()));
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                count++;
+            }
+        }
+        lock.writeLock().lock();
+        try {
+            pending.forEach(Runnable::run);
+            pending.clear();
+            for(RoaringBitmap bitmap: usersByRole.values())
+            {
+                bitmap.runOptimize();
+            }
+            ready = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.info("Role membership index built with {} user roles", count);
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Добавление ролей пользователю
+     * @param login логин пользователя
+     * @param roleNames названия ролей
+     */
+    public void add(String login, Collection<String> roleNames) {
+        if(roleNames.isEmpty())
+        {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            if(ready)
+            {
+                addNow(login, roleNames);
+            }
+            else
+            {
+                List<String> roleNamesCopy = new ArrayList<>(roleNames);
+                pending.add(() -> addNow(login, roleNamesCopy));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void addNow(String login, Collection<String> roleNames) {
+        Integer id = idsByLogin.get(login);
+        if(id==null)
+        {
+            id = freeIds.pollFirst();
+            if(id==null)
+            {
+                id = loginsById.size();
+                loginsById.add(login);
+            }
+            else
+            {
+                loginsById.set(id, login);
+            }
+            idsByLogin.put(login, id);
+        }
+        for(String roleName: roleNames)
+        {
+            usersByRole.computeIfAbsent(roleName, r -> new RoaringBitmap()).add(id);
+        }
+    }
+
+    /**
+     * Удаление пользователя из всех ролей. Id пользователя выдается следующему добавленному пользователю.
+     * @param login логин пользователя
+     */
+    public void remove(String login) {
+        lock.writeLock().lock();
+        try {
+            if(ready)
+            {
+                removeNow(login);
+            }
+            else
+            {
+                pending.add(() -> removeNow(login));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void removeNow(String login) {
+        Integer id = idsByLogin.remove(login);
+        if(id==null)
+        {
+            return;
+        }
+        loginsById.set(id, null);
+        for(RoaringBitmap bitmap: usersByRole.values())
+        {
+            bitmap.remove(id);
+        }
+        freeIds.addLast(id);
+    }
+
+    /**
+     * @return true - у пользователя есть роль, false - нет роли или пользователя не существует
+     */
+    public boolean hasRole(String login, String roleName) {
+        lock.readLock().lock();
+        try {
+            Integer id = idsByLogin.get(login);
+            RoaringBitmap bitmap = usersByRole.get(roleName);
+            return id!=null && bitmap!=null && bitmap.contains(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Поиск пользователей по ролям. Пользователи упорядочены по id: по порядку попадания в индекс,
+     * но пользователь, получивший id удаленного, стоит на его месте.
+     * Вызывается только после {@link #isReady()}, до этого индекс неполный.
+     * @param roleNames названия ролей
+     * @param matchAll true - у пользователя должны быть все роли (AND), false - хотя бы одна (OR)
+     * @param offset количество пропускаемых пользователей
+     * @param limit количество пользователей на странице
+     * @return страница логинов и общее количество найденных пользователей
+     */
+    public UsersPage find(Collection<String> roleNames, boolean matchAll, int offset, int limit) {
+        lock.readLock().lock();
+        try {
+            RoaringBitmap result = null;
+            for(String roleName: roleNames)
+            {
+                RoaringBitmap bitmap = usersByRole.getOrDefault(roleName, new RoaringBitmap());
+                if(result==null)
+                {
+                    result = bitmap.clone();
+                }
+                else if(matchAll)
+                {
+                    result.and(bitmap);
+                }
+                else
+                {
+                    result.or(bitmap);
+                }
+            }
+            if(result==null || offset >= result.getCardinality())
+            {
+                return new UsersPage(result==null ? 0 : result.getCardinality(), Collections.emptyList());
+            }
+            List<String> logins = new ArrayList<>(Math.min(limit, result.getCardinality() - offset));
+            PeekableIntIterator iterator = result.getIntIterator();
+            iterator.advanceIfNeeded(result.select(offset));
+            while(iterator.hasNext() && logins.size() < limit)
+            {
+                logins.add(loginsById.get(iterator.next()));
+            }
+            return new UsersPage(result.getLongCardinality(), logins);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Количество выданных id, включая id удаленных пользователей, которые еще не выданы снова
+     */
+    public int getIdCount() {
+        lock.readLock().lock();
+        try {
+            return loginsById.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Удаление всех пользователей из индекса
+     */
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            pending.clear();
+            idsByLogin.clear();
+            loginsById.clear();
+            freeIds.clear();
+            usersByRole.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.github.gimazdo.testcasecodmark.Service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.github.gimazdo.testcasecodmark.Util.TransactionUtil;
+import com.github.gimazdo.testcasecodmark.Util.UserUtil;
+import com.github.gimazdo.testcasecodmark.dto.UserWithRoles;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * Кэш пользователей с ролями по логину для {@link UserService#findByLogin(String)}.
+ * Размер кэша ограничен, записи удаляются по истечении времени жизни.
+ * Несуществующие логины тоже кэшируются, но с меньшим временем жизни.
+ * При изменении пользователя запись удаляется сразу и еще раз после коммита транзакции,
+ * чтобы в кэш не попали данные, прочитанные до коммита.
+ * Записи хранятся по {@link UserUtil#loginKey(String)}, так как логин в БД сравнивается без учета регистра:
+ * изменение пользователя по логину в другом регистре удаляет и найденного, и несуществующего пользователя.
+ */
+@Component
+public class UserCache {
+
+    private final Cache<String, Optional<UserWithRoles>> users;
+
+    public UserCache(@Value("${users.user-cache.max-size:100000}") long maxSize,
+                     @Value("${users.user-cache.ttl:5m}") Duration ttl,
+                     @Value("${users.user-cache.negative-ttl:30s}") Duration negativeTtl,
+                     MeterRegistry meterRegistry) {
+        this.users = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfter(new Expiry<String, Optional<UserWithRoles>>() {
+                    @Override
+                    public long expireAfterCreate(String login, Optional<UserWithRoles> user, long currentTime) {
+                        return user.isPresent() ? ttl.toNanos() : negativeTtl.toNanos();
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String login, Optional<UserWithRoles> user, long currentTime, long currentDuration) {
+                        return expireAfterCreate(login, user, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String login, Optional<UserWithRoles> user, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, users, "users");
+    }
+
+    /**
+     * Поиск пользователя в кэше. Если его нет в кэше, то он загружается через loader и кладется в кэш.
+     * @param login логин пользователя
+     * @param loader загрузка пользователя из БД по переданному логину, возвращает null, если пользователя не существует
+     * @return пользователь или null, если пользователя не существует
+     */
+    public UserWithRoles get(String login, Function<String, UserWithRoles> loader) {
+        if(login==null)
+        {
+            return loader.apply(null);
+        }
+        return users.get(UserUtil.loginKey(login), key -> Optional.ofNullable(loader.apply(login))).orElse(null);
+    }
+
+    /**
+     * Удаление пользователя из кэша сейчас и после коммита текущей транзакции
+     * @param login логин пользователя
+     */
+    public void invalidate(String login) {
+        if(login==null)
+        {
+            return;
+        }
+        String key = UserUtil.loginKey(login);
+        users.invalidate(key);
+        TransactionUtil.afterCommit(() -> users.invalidate(key));
+    }
+
+    /**
+     * Очистка кэша
+     */
+    public void invalidateAll() {
+        users.invalidateAll();
+    }
+
+    public long size() {
+        return users.estimatedSize();
+    }
+
+    public CacheStats stats() {
+        return users.stats();
+    }
+}
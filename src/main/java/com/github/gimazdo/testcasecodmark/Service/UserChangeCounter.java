@@ -0,0 +1,28 @@
+package com.github.gimazdo.testcasecodmark.Service;
+
+import com.github.gimazdo.testcasecodmark.Util.TransactionUtil;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Глобальный счетчик изменений списка пользователей.
+ * Увеличивается после коммита добавления, изменения и удаления пользователей, по нему {@link UserListSnapshot}
+ * понимает, что снимок списка устарел.
+ */
+@Component
+public class UserChangeCounter {
+
+    private final AtomicLong counter = new AtomicLong();
+
+    /**
+     * Увеличение счетчика после коммита текущей транзакции
+     */
+    public void incrementAfterCommit() {
+        TransactionUtil.afterCommit(counter::incrementAndGet);
+    }
+
+    public long get() {
+        return counter.get();
+    }
+}
@@ -0,0 +1,414 @@
+package com.github.gimazdo.testcasecodmark.Service;
+
+import com.github.gimazdo.testcasecodmark.Util.TransactionUtil;
+import com.github.gimazdo.testcasecodmark.dto.UserChangeEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Лента изменений пользователей и ролей.
+ * События публикуются после коммита и получают возрастающие номера. Последние users.change-feed.replay-size событий
+ * хранятся в буфере, поэтому переподключившийся подписчик получает пропущенные события по номеру последнего полученного.
+ * Если пропущенных событий в буфере уже нет, подписчик получает событие {@link UserChangeEvent.Type#RESET}.
+ * Номера начинаются заново после перезапуска, поэтому id события для клиента состоит из случайной эпохи запуска и номера,
+ * и по id из прошлого запуска подписчик тоже получает RESET.
+ * У каждого подписчика своя очередь, которую отправляет общий пул потоков. Если подписчик не успевает читать
+ * и в его очереди больше users.change-feed.subscriber-queue-capacity событий сверх буфера, он отключается
+ * и может переподключиться с номера последнего полученного события. Поэтому память не растет из-за медленных подписчиков.
+ * Отправка блокирующая, поэтому подписчик, отправка которому идет дольше users.change-feed.send-timeout, тоже отключается,
+ * а пока зависшая отправка не завершится, в пул добавляется поток на ее место. Так зависшие клиенты не занимают
+ * потоки, которыми обслуживаются остальные подписчики.
+ */
+@Component
+public class UserChangeFeed implements DisposableBean {
+    /**
+     * Название метрики количества подписчиков
+     */
+    public static final String SUBSCRIBERS_GAUGE = "user.change-feed.subscribers";
+
+    /**
+     * Название метрики количества отключенных медленных подписчиков
+     */
+    public static final String DROPPED_COUNTER = "user.change-feed.dropped";
+
+    /**
+     * Получатель событий подписчика
+     */
+    public interface Sink {
+        /**
+         * Отправка события. Вызывается из пула отправки, события одного подписчика отправляются по очереди.
+         * @throws IOException если подписчик отключился
+         */
+        void send(UserChangeEvent event) throws IOException;
+
+        /**
+         * Закрытие подписки со стороны ленты. Вызывается после завершения текущей отправки, а не одновременно с ней
+         */
+        void close();
+    }
+
+    private final int replaySize;
+    private final int maxQueued;
+    private final int maxSubscribers;
+    private final ArrayDeque<UserChangeEvent> replay;
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final int senderThreads;
+    private final long sendTimeoutNanos;
+    private final ThreadPoolExecutor sender;
+    private final ScheduledExecutorService watchdog;
+    private final Counter dropped;
+
+    /**
+     * Количество потоков, добавленных в пул на место зависших отправок. Изменяется под блокировкой sender
+     */
+    private int stalledSenders;
+
+    /**
+     * Случайная эпоха, отличающаяся у каждого запуска приложения
+     */
+    private final String epoch = Long.toUnsignedString(new SecureRandom().nextLong(), 36);
+
+    /**
+     * Номер последнего события. Изменяется под блокировкой this
+     */
+    private long lastSequence;
+
+    public UserChangeFeed(@Value("${users.change-feed.replay-size:10000}") int replaySize,
+                          @Value("${users.change-feed.subscriber-queue-capacity:1000}") int queueCapacity,
+                          @Value("${users.change-feed.max-subscribers:100}") int maxSubscribers,
+                          @Value("${users.change-feed.sender-threads:2}") int senderThreads,
+                          @Value("${users.change-feed.send-timeout:10s}") Duration sendTimeout,
+                          MeterRegistry meterRegistry) {
+        this.replaySize = replaySize;
+        this.maxQueued = replaySize + queueCapacity;
+        this.maxSubscribers = maxSubscribers;
+        this.senderThreads = senderThreads;
+        this.sendTimeoutNanos = sendTimeout.toNanos();
+        this.replay = new ArrayDeque<>(Math.min(replaySize, 1024));
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.sender = new ThreadPoolExecutor(senderThreads, senderThreads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "change-feed-sender-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "change-feed-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long checkPeriod = Math.max(sendTimeoutNanos / 2, TimeUnit.MILLISECONDS.toNanos(1));
+        watchdog.scheduleWithFixedDelay(this::cancelStalled, checkPeriod, checkPeriod, TimeUnit.NANOSECONDS);
+        Gauge.builder(SUBSCRIBERS_GAUGE, subscriptions, List::size).register(meterRegistry);
+        this.dropped = Counter.builder(DROPPED_COUNTER).register(meterRegistry);
+    }
+
+    /**
+     * Публикация события после коммита текущей транзакции. Если транзакции нет, то событие публикуется сразу.
+     * @param type тип изменения
+     * @param login логин пользователя
+     * @param name имя пользователя
+     * @param roles названия ролей
+     */
+    public void publishAfterCommit(UserChangeEvent.Type type, String login, String name, Collection<String> roles) {
+        List<String> roleNames = roles==null ? null : new ArrayList<>(roles);
+        TransactionUtil.afterCommit(() -> publish(type, login, name, roleNames));
+    }
+
+    private synchronized void publish(UserChangeEvent.Type type, String login, String name, List<String> roles) {
+        UserChangeEvent event = new UserChangeEvent(++lastSequence, type, login, name, roles);
+        if(replaySize > 0)
+        {
+            if(replay.size()==replaySize)
+            {
+                replay.pollFirst();
+            }
+            replay.addLast(event);
+        }
+        for(Subscription subscription: subscriptions)
+        {
+            subscription.offer(event);
+        }
+    }
+
+    /**
+     * id события для клиента
+     * @param sequence номер события
+     * @return эпоха запуска и номер события через дефис
+     */
+    public String eventId(long sequence) {
+        return epoch + "-" + sequence;
+    }
+
+    /**
+     * Номер события по его id
+     * @return номер или -1, если id из другого запуска или некорректный
+     */
+    private long sequenceOf(String eventId) {
+        if(!eventId.startsWith(epoch + "-"))
+        {
+            return -1;
+        }
+        try {
+            return Long.parseLong(eventId.substring(epoch.length() + 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Подписка на события
+     * @param lastEventId id последнего полученного события. Если null, то отправляются только новые события.
+     * @param sink получатель событий
+     * @return подписка или null, если достигнуто максимальное количество подписчиков
+     */
+    public synchronized Subscription subscribe(String lastEventId, Sink sink) {
+        if(subscriptions.size() >= maxSubscribers)
+        {
+            return null;
+        }
+        Subscription subscription = new Subscription(sink);
+        long after = lastEventId==null ? lastSequence : sequenceOf(lastEventId);
+        if(after!=lastSequence)
+        {
+            long oldest = replay.isEmpty() ? lastSequence + 1 : replay.peekFirst().getSequence();
+            if(after < 0 || after > lastSequence || after < oldest - 1)
+            {
+                subscription.enqueue(new UserChangeEvent(lastSequence, UserChangeEvent.Type.RESET, null, null, null));
+            }
+            else
+            {
+                for(UserChangeEvent event: replay)
+                {
+                    if(event.getSequence() > after)
+                    {
+                        subscription.enqueue(event);
+                    }
+                }
+            }
+        }
+        subscriptions.add(subscription);
+        subscription.schedule();
+        return subscription;
+    }
+
+    public synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    @Override
+    public void destroy() {
+        watchdog.shutdownNow();
+        subscriptions.forEach(Subscription::cancel);
+        sender.shutdownNow();
+    }
+
+    /**
+     * Отключение подписчиков, отправка которым идет дольше users.change-feed.send-timeout
+     */
+    private void cancelStalled() {
+        long now = System.nanoTime();
+        for(Subscription subscription: subscriptions)
+        {
+            if(subscription.stall(now))
+            {
+                dropped.increment();
+                subscription.cancel();
+            }
+        }
+    }
+
+    /**
+     * Добавление потока в пул на место зависшей отправки.
+     * Количество добавленных потоков ограничено users.change-feed.max-subscribers
+     * @return true - поток добавлен, false - достигнуто ограничение
+     */
+    private boolean addStalledSender() {
+        synchronized (sender) {
+            if(stalledSenders >= maxSubscribers)
+            {
+                return false;
+            }
+            stalledSenders++;
+            sender.setMaximumPoolSize(senderThreads + stalledSenders);
+            sender.setCorePoolSize(senderThreads + stalledSenders);
+            return true;
+        }
+    }
+
+    /**
+     * Удаление добавленного потока после завершения зависшей отправки
+     */
+    private void removeStalledSender() {
+        synchronized (sender) {
+            stalledSenders--;
+            sender.setCorePoolSize(senderThreads + stalledSenders);
+            sender.setMaximumPoolSize(senderThreads + stalledSenders);
+        }
+    }
+
+    /**
+     * Подписка на ленту. События ставятся в очередь подписки и отправляются пулом по одному.
+     */
+    public final class Subscription {
+
+        private final Sink sink;
+        private final Queue<UserChangeEvent> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger queued = new AtomicInteger();
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        /**
+         * Идет ли отправка, время ее начала и добавлен ли поток на ее место. Изменяются под блокировкой подписки
+         */
+        private boolean sending;
+        private long sendStarted;
+        private boolean stalled;
+
+        private Subscription(Sink sink) {
+            this.sink = sink;
+        }
+
+        /**
+         * Добавление нового события. Если очередь переполнена, подписчик отключается.
+         */
+        private void offer(UserChangeEvent event) {
+            if(queued.incrementAndGet() > maxQueued)
+            {
+                dropped.increment();
+                cancel();
+                return;
+            }
+            queue.add(event);
+            schedule();
+        }
+
+        /**
+         * Добавление события из буфера при подписке
+         */
+        private void enqueue(UserChangeEvent event) {
+            queued.incrementAndGet();
+            queue.add(event);
+        }
+
+        private void schedule() {
+            if(!cancelled.get() && !queue.isEmpty() && draining.compareAndSet(false, true))
+            {
+                try {
+                    sender.execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    draining.set(false);
+                }
+            }
+        }
+
+        private void drain() {
+            try {
+                UserChangeEvent event;
+                while(!cancelled.get() && (event = queue.poll())!=null)
+                {
+                    queued.decrementAndGet();
+                    beginSend();
+                    try {
+                        sink.send(event);
+                    } finally {
+                        endSend();
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                cancel();
+            } finally {
+                draining.set(false);
+            }
+            if(cancelled.get())
+            {
+                close();
+            }
+            schedule();
+        }
+
+        private synchronized void beginSend() {
+            sending = true;
+            sendStarted = System.nanoTime();
+        }
+
+        private synchronized void endSend() {
+            sending = false;
+            if(stalled)
+            {
+                stalled = false;
+                removeStalledSender();
+            }
+        }
+
+        private synchronized boolean isSending() {
+            return sending;
+        }
+
+        /**
+         * Проверка зависшей отправки. Если отправка идет дольше users.change-feed.send-timeout,
+         * то в пул добавляется поток на ее место
+         * @param now текущее время {@link System#nanoTime()}
+         * @return true - отправка зависла и подписчика нужно отключить
+         */
+        private synchronized boolean stall(long now) {
+            if(!sending || stalled || now - sendStarted <= sendTimeoutNanos)
+            {
+                return false;
+            }
+            stalled = addStalledSender();
+            return true;
+        }
+
+        /**
+         * Отмена подписки и закрытие получателя. Если идет отправка, то получатель закрывается после ее завершения,
+         * поэтому отмена не блокируется на зависшей отправке
+         */
+        public void cancel() {
+            if(!cancelled.compareAndSet(false, true))
+            {
+                return;
+            }
+            subscriptions.remove(this);
+            queue.clear();
+            if(!isSending())
+            {
+                close();
+            }
+        }
+
+        private void close() {
+            if(closed.compareAndSet(false, true))
+            {
+                sink.close();
+            }
+        }
+    }
+}
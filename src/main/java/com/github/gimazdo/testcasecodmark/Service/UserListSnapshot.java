@@ -0,0 +1,103 @@
+package com.github.gimazdo.testcasecodmark.Service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.SecureRandom;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Снимок списка пользователей без ролей, сериализованный в JSON и сжатый gzip.
+ * Перестраивается в фоне, когда {@link UserChangeCounter} изменился, поэтому повторные запросы списка
+ * не обращаются к БД и не сериализуют JSON.
+ */
+@Component
+@Slf4j
+public class UserListSnapshot {
+
+    private final UserService userService;
+
+    private final UserChangeCounter userChangeCounter;
+
+    private final ObjectMapper objectMapper;
+
+    /**
+     * Случайный номер запуска. Счетчик изменений после перезапуска начинается заново,
+     * поэтому без него клиент мог бы получить 304 на ETag, выданный до перезапуска для другого списка.
+     */
+    private final String epoch = Long.toUnsignedString(new SecureRandom().nextLong(), 36);
+
+    private volatile Snapshot current;
+
+    public UserListSnapshot(UserService userService, UserChangeCounter userChangeCounter, ObjectMapper objectMapper) {
+        this.userService = userService;
+        this.userChangeCounter = userChangeCounter;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Сжатый JSON списка пользователей, значение счетчика изменений, на момент которого он построен,
+     * и ETag из номера запуска и этого значения
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Snapshot {
+        private final long version;
+        private final byte[] gzippedJson;
+        private final String eTag;
+    }
+
+    /**
+     * @return текущий снимок. Если снимок еще не построен, то null
+     */
+    public Snapshot getCurrent() {
+        return current;
+    }
+
+    /**
+     * Построение снимка при старте и перестроение, если с момента последнего построения пользователи менялись.
+     * Счетчик читается до чтения пользователей, поэтому изменение во время построения приведет к следующему перестроению.
+     * Построение при старте и по расписанию может совпасть, поэтому оно выполняется под блокировкой,
+     * и более старый снимок не заменит более новый.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(fixedDelayString = "${users.snapshot.rebuild-delay-ms:1000}")
+    public synchronized void rebuildIfChanged() {
+        long version = userChangeCounter.get();
+        Snapshot snapshot = current;
+        if(snapshot!=null && snapshot.getVersion()==version)
+        {
+            return;
+        }
+        current = new Snapshot(version, build(), "users-" + epoch + "-" + version);
+        log.debug("User list snapshot rebuilt for version {}", version);
+    }
+
+    private byte[] build() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(new GZIPOutputStream(out))) {
+            generator.writeStartArray();
+            userService.forEachUserWithoutRoles(user -> {
+                try {
+                    objectMapper.writeValue(generator, user);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            generator.writeEndArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+}
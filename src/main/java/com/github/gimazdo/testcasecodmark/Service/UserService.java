@@ -2,25 +2,46 @@ package com.github.gimazdo.testcasecodmark.Service;
 
 import com.github.gimazdo.testcasecodmark.Model.Role;
 import com.github.gimazdo.testcasecodmark.Model.User;
-import com.github.gimazdo.testcasecodmark.Exception.UserServiceException;
+import com.github.gimazdo.testcasecodmark.dto.UserWithRoles;
 import com.github.gimazdo.testcasecodmark.dto.UserWithoutRoles;
+import com.github.gimazdo.testcasecodmark.dto.UsersPage;
+import com.github.gimazdo.testcasecodmark.dto.ValidationResult;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.function.Consumer;
 
 public interface UserService
 {
     List<UserWithoutRoles> getAllUsersWithoutRoles();
 
-    User findByLogin(String login);
+    List<UserWithoutRoles> getUsersPage(String after, int limit);
 
-    void addUser(User user) throws UserServiceException;
+    void forEachUserWithoutRoles(Consumer<UserWithoutRoles> action);
 
-    void deleteUser(String login) throws UserServiceException;
+    void exportUsers(Consumer<UserWithoutRoles> action);
 
-    void addRoleToUser(String login, String roleName) throws UserServiceException;
+    UserWithRoles findByLogin(String login);
 
-    void addRole(Role role) throws UserServiceException;
+    Long findVersion(String login);
 
-    void updateUser(User user) throws UserServiceException;
+    ValidationResult addUser(User user);
+
+    Map<Integer, List<String>> importUsers(List<User> users);
+
+    ValidationResult deleteUser(String login);
+
+    ValidationResult addRoleToUser(String login, String roleName);
+
+    ValidationResult addRole(Role role);
+
+    ValidationResult updateUser(User user);
+
+    boolean hasRole(String login, String roleName);
+
+    ValidationResult authenticate(String login, String password);
+
+    UsersPage findUsersByRoles(Collection<String> roleNames, boolean matchAll, int offset, int limit);
 }
@@ -1,228 +1,792 @@
 package com.github.gimazdo.testcasecodmark.Service;
 
+import com.github.gimazdo.testcasecodmark.Exception.PasswordHasherBusyException;
+import com.github.gimazdo.testcasecodmark.Exception.RoleMembershipIndexNotReadyException;
 import com.github.gimazdo.testcasecodmark.Model.Role;
 import com.github.gimazdo.testcasecodmark.Model.User;
 import com.github.gimazdo.testcasecodmark.Repository.RoleRepository;
 import com.github.gimazdo.testcasecodmark.Repository.UserRepository;
-import com.github.gimazdo.testcasecodmark.Exception.UserServiceException;
+import com.github.gimazdo.testcasecodmark.Util.PasswordPolicy;
+import com.github.gimazdo.testcasecodmark.Util.TransactionUtil;
 import com.github.gimazdo.testcasecodmark.Util.UserUtil;
+import com.github.gimazdo.testcasecodmark.dto.UserChangeEvent;
+import com.github.gimazdo.testcasecodmark.dto.UserWithRoles;
 import com.github.gimazdo.testcasecodmark.dto.UserWithoutRoles;
+import com.github.gimazdo.testcasecodmark.dto.UsersPage;
+import com.github.gimazdo.testcasecodmark.dto.ValidationResult;
+import io.micrometer.core.annotation.Timed;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import javax.transaction.Transactional;
+import javax.annotation.PostConstruct;
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class UserServiceImpl implements UserService{
+    /**
+     * Название метрики времени выполнения методов сервиса
+     */
+    public static final String SERVICE_TIMER = "user.service";
+
+    /**
+     * Максимальный размер страницы для {@link #getUsersPage(String, int)}
+     */
+    public static final int MAX_PAGE_SIZE = 1000;
+
+    /**
+     * Код ошибки MySQL ER_DUP_ENTRY
+     */
+    private static final int MYSQL_DUPLICATE_ENTRY = 1062;
+
+    /**
+     * SQLSTATE нарушения уникальности в H2 и PostgreSQL
+     */
+    private static final String SQL_STATE_UNIQUE_VIOLATION = "23505";
+
+    /**
+     * Количество попыток {@link #updateUser(User)}, если пользователя параллельно изменил другой запрос
+     */
+    private static final int UPDATE_ATTEMPTS = 3;
+
     private final UserRepository userRepository;
     private final RoleRepository roleRepository;
+    private final RoleCache roleCache;
+    private final PasswordPolicy passwordPolicy;
+    private final UserCache userCache;
+    private final LoginFilter loginFilter;
+    private final UserChangeCounter userChangeCounter;
+    private final RoleMembershipIndex roleMembershipIndex;
+    private final PasswordHasher passwordHasher;
+    private final CredentialCache credentialCache;
+    private final UserChangeFeed userChangeFeed;
+    private final TransactionTemplate transactionTemplate;
+
+    /**
+     * Размер пачки при массовом добавлении пользователей
+     */
+    @Value("${users.import.chunk-size:500}")
+    private int importChunkSize;
+
+    /**
+     * Размер порции, который передается драйверу при выгрузке пользователей.
+     * Для MySQL {@link Integer#MIN_VALUE} - построчное чтение без загрузки всего результата в память.
+     */
+    @Value("${users.export.fetch-size:1000}")
+    private int exportFetchSize;
+
+    /**
+     * Проверка настроек при старте
+     */
+    @PostConstruct
+    void checkSettings() {
+        if(importChunkSize <= 0)
+        {
+            throw new IllegalStateException("users.import.chunk-size должен быть больше 0: " + importChunkSize);
+        }
+    }
 
     /**
-     * Ищет всех пользователей через репозиторий и конвертирует их в {@link UserWithoutRoles}
+     * Ищет всех пользователей через репозиторий сразу в виде {@link UserWithoutRoles},
+     * без загрузки сущностей {@link User} и их паролей
      * @return Список пользователей без их ролей
      */
     @Override
+    @Timed(SERVICE_TIMER)
     public List<UserWithoutRoles> getAllUsersWithoutRoles() {
-        List<UserWithoutRoles> users = new ArrayList<>();
-        userRepository.findAll().forEach(user -> users.add(new UserWithoutRoles(user)));
-        return  users;
+        return userRepository.findAllUsersWithoutRoles();
     }
 
     /**
-     * Поиск пользователя по логину
+     * Постраничное получение пользователей без ролей с keyset пагинацией по логину.
+     * Вместо OFFSET используется условие login > after, поэтому время запроса не зависит от номера страницы.
+     * @param after логин последнего пользователя предыдущей страницы. Если null, то возвращается первая страница.
+     * @param limit размер страницы, приводится к диапазону от 1 до {@link #MAX_PAGE_SIZE}
+     * @return Список пользователей без их ролей, отсортированный по логину
+     */
+    @Override
+    @Timed(SERVICE_TIMER)
+    public List<UserWithoutRoles> getUsersPage(String after, int limit) {
+        Pageable pageable = PageRequest.of(0, Math.max(1, Math.min(limit, MAX_PAGE_SIZE)));
+        if(after==null)
+        {
+            return userRepository.findFirstPage(pageable);
+        }
+        return userRepository.findPageAfter(after, pageable);
+    }
+
+    /**
+     * Последовательно передает всех пользователей без ролей в action, не собирая их в список.
+     * Используется для построения снимка списка, поэтому память не зависит от количества пользователей.
+     * @param action обработчик, который вызывается для каждого пользователя
+     */
+    @Override
+    @Timed(SERVICE_TIMER)
+    @Transactional(readOnly = true)
+    public void forEachUserWithoutRoles(Consumer<UserWithoutRoles> action) {
+        try (Stream<UserWithoutRoles> users = userRepository.streamAllUsersWithoutRoles()) {
+            users.forEach(action);
+        }
+    }
+
+    /**
+     * Выгрузка всех пользователей без ролей: последовательно передает их в action, не собирая в список.
+     * В отличие от {@link #forEachUserWithoutRoles(Consumer)} размер порции задается users.export.fetch-size
+     * только для этого запроса, поэтому остальные запросы через общее подключение не читаются курсором.
+     * @param action обработчик, который вызывается для каждого пользователя
+     */
+    @Override
+    @Timed(SERVICE_TIMER)
+    @Transactional(readOnly = true)
+    public void exportUsers(Consumer<UserWithoutRoles> action) {
+        try (Stream<UserWithoutRoles> users = userRepository.streamAllUsersWithoutRoles(exportFetchSize)) {
+            users.forEach(action);
+        }
+    }
+
+    /**
+     * Поиск пользователя по логину через {@link UserCache}. Если пользователя нет в кэше,
+     * то пользователь и его роли загружаются одним запросом.
      * @param login - логин пользователя
-     * @return {@link User} найденный по логину. Если пользователя не существует, то вернется null.
+     * @return {@link UserWithRoles} найденный по логину. Если пользователя не существует, то вернется null.
      */
     @Override
-    public User findByLogin(String login) {
+    @Timed(SERVICE_TIMER)
+    public UserWithRoles findByLogin(String login) {
+        return userCache.get(login, l -> {
+            User user = userRepository.findWithRolesByLogin(l);
+            return user==null ? null : new UserWithRoles(user);
+        });
+    }
 
-        return userRepository.findUserByLogin(login);
+    /**
+     * Получение версии пользователя одним запросом, без загрузки ролей.
+     * Используется для ответа 304 на условный GET.
+     * @param login - логин пользователя
+     * @return версия пользователя. Если пользователя не существует, то null
+     */
+    @Override
+    @Timed(SERVICE_TIMER)
+    public Long findVersion(String login) {
+        return userRepository.findVersionByLogin(login);
     }
 
     /**
      * Добавление пользователя в БД.
+     * Логин ищется в БД, только если {@link LoginFilter} считает, что он может быть занят.
+     * Пароль хэшируется через {@link PasswordHasher} только после всех проверок. Метод не транзакционный,
+     * чтобы соединение с БД не удерживалось на время хэширования: пользователь сохраняется в отдельной транзакции.
      * @param user - пользователь, которого нужно добавить
-     * @throws UserServiceException хранит в себе все ошибки, которые могут произойти во время работы логина.
-     * Основная задача - собрать ошибки формато-логического контроля и отправить их пользователю.
+     * @return ошибки формато-логического контроля. Если ошибок нет, то {@link ValidationResult#SUCCESS}
+     * @throws com.github.gimazdo.testcasecodmark.Exception.PasswordHasherBusyException если очередь хэширования паролей заполнена
      */
     @Override
-    @Transactional
-    public void addUser(User user) throws UserServiceException {
-        UserServiceException exception = new UserServiceException();
-        if(user.getLogin()!=null && userRepository.findUserByLogin(user.getLogin())!=null)
+    @Timed(SERVICE_TIMER)
+    public ValidationResult addUser(User user) {
+        if(user.getLogin()!=null && loginFilter.mightExist(user.getLogin()) && userRepository.findUserByLogin(user.getLogin())!=null)
         {
-            exception.getErrors().add("Login занят");
-            throw  exception;
+            return ValidationResult.error("Login занят");
         }
-        exception = UserUtil.validateUser(user);
+        List<String> errors = new ArrayList<>(UserUtil.validateUser(user, passwordPolicy).getErrors());
         Set<Role> roles = new HashSet<>();
         if(user.getRoles()!=null)
         {
-
+            Map<String, Role> existingRoles = findRoles(user.getRoles());
             for(Role r: user.getRoles())
             {
-                Role role = roleRepository.findByName(r.getName());
+                Role role = existingRoles.get(r.getName());
                 if(role!=null)
                 {
                     roles.add(role);
                 }
                 else
                 {
-                    exception.getErrors().add("Роли " + r.getName() + " не существует");
+                    errors.add("Роли " + r.getName() + " не существует");
                 }
             }
         }
 
-        if(exception.getErrors().size()>0) {
-            throw exception;
+        if(errors.size()>0) {
+            return ValidationResult.of(errors);
         }
 
         user.setRoles(roles);
-        userRepository.save(user);
+        user.setPassword(passwordHasher.hash(user.getPassword()));
+        try {
+            userRepository.persist(user);
+        } catch (DataIntegrityViolationException e) {
+            if(!isDuplicateKey(e))
+            {
+                throw e;
+            }
+            return ValidationResult.error("Login занят");
+        }
+        loginFilter.add(user.getLogin());
+        userCache.invalidate(user.getLogin());
+        indexRolesAfterCommit(user.getLogin(), roles);
+        userChangeCounter.incrementAfterCommit();
+        userChangeFeed.publishAfterCommit(UserChangeEvent.Type.USER_ADDED, user.getLogin(), user.getName(), roleNames(roles));
+        return ValidationResult.SUCCESS;
+    }
+
+    /**
+     * Массовое добавление пользователей.
+     * Каждый пользователь проверяется так же, как в {@link #addUser(User)}, роли ищутся одним запросом на весь список,
+     * занятые логины - одним запросом на пачку, а корректные пользователи сохраняются пачками через JDBC batch.
+     * Метод не транзакционный: сначала проверяются все пачки и хэшируются пароли всех корректных пользователей
+     * через {@link PasswordHasher#hashAll(List)}, и только потом каждая пачка сохраняется в своей короткой транзакции.
+     * Поэтому соединение с БД не удерживается на время хэширования, а переполнение очереди хэширования
+     * происходит до того, как что-либо сохранено.
+     * Если логин пачки занят параллельным запросом, то пачка откатывается и ее пользователи сохраняются по одному.
+     * @param users пользователи, которых нужно добавить
+     * @return ошибки по номеру пользователя в списке. Пользователи с ошибками не добавляются, остальные добавляются.
+     * @throws com.github.gimazdo.testcasecodmark.Exception.PasswordHasherBusyException если очередь хэширования паролей заполнена
+     */
+    @Override
+    @Timed(SERVICE_TIMER)
+    public Map<Integer, List<String>> importUsers(List<User> users) {
+        Map<Integer, List<String>> errors = new TreeMap<>();
+        Map<String, Role> roles = findRoles(users.stream()
+                .filter(user -> user.getRoles() != null)
+                .flatMap(user -> user.getRoles().stream())
+                .collect(Collectors.toList()));
+
+        Set<String> importedLogins = new HashSet<>();
+        List<Map<Integer, User>> validChunks = new ArrayList<>();
+        for(int from = 0; from < users.size(); from += importChunkSize)
+        {
+            List<User> chunk = users.subList(from, Math.min(from + importChunkSize, users.size()));
+            Set<String> logins = new HashSet<>();
+            chunk.stream().map(User::getLogin).filter(Objects::nonNull).forEach(logins::add);
+            Set<String> existingLogins = logins.isEmpty() ? Collections.emptySet() : new HashSet<>(userRepository.findExistingLogins(logins));
+
+            Map<Integer, User> validUsers = new LinkedHashMap<>();
+            for(int i = 0; i < chunk.size(); i++)
+            {
+                User user = chunk.get(i);
+                if(user.getLogin()!=null && (existingLogins.contains(user.getLogin()) || importedLogins.contains(user.getLogin())))
+                {
+                    errors.put(from + i, Collections.singletonList("Login занят"));
+                    continue;
+                }
+                List<String> userErrors = new ArrayList<>(UserUtil.validateUser(user, passwordPolicy).getErrors());
+                Set<Role> userRoles = new HashSet<>();
+                if(user.getRoles()!=null)
+                {
+                    for(Role r: user.getRoles())
+                    {
+                        Role role = roles.get(r.getName());
+                        if(role!=null)
+                        {
+                            userRoles.add(role);
+                        }
+                        else
+                        {
+                            userErrors.add("Роли " + r.getName() + " не существует");
+                        }
+                    }
+                }
+                if(userErrors.size()>0)
+                {
+                    errors.put(from + i, userErrors);
+                    continue;
+                }
+                user.setRoles(userRoles);
+                importedLogins.add(user.getLogin());
+                validUsers.put(from + i, user);
+            }
+            if(!validUsers.isEmpty())
+            {
+                validChunks.add(validUsers);
+            }
+        }
+
+        List<User> validUsers = validChunks.stream().flatMap(chunk -> chunk.values().stream()).collect(Collectors.toList());
+        List<String> hashes = passwordHasher.hashAll(validUsers.stream().map(User::getPassword).collect(Collectors.toList()));
+        for(int i = 0; i < validUsers.size(); i++)
+        {
+            validUsers.get(i).setPassword(hashes.get(i));
+        }
+
+        for(Map<Integer, User> chunk: validChunks)
+        {
+            persistChunk(chunk, errors);
+        }
+        return errors;
+    }
+
+    /**
+     * Сохранение пачки проверенных пользователей с уже захэшированными паролями в своей транзакции.
+     * Если логин занят параллельным запросом, то пачка откатывается, и ее пользователи сохраняются по одному,
+     * а для занятых логинов в errors добавляется ошибка.
+     * @param chunk пользователи пачки по номеру в списке
+     * @param errors ошибки по номеру пользователя в списке
+     */
+    private void persistChunk(Map<Integer, User> chunk, Map<Integer, List<String>> errors) {
+        List<User> persisted = new ArrayList<>(chunk.values());
+        try {
+            userRepository.persistAll(persisted, importChunkSize);
+        } catch (DataIntegrityViolationException e) {
+            if(!isDuplicateKey(e))
+            {
+                throw e;
+            }
+            persisted.clear();
+            for(Map.Entry<Integer, User> entry: chunk.entrySet())
+            {
+                // сущность, которую не удалось сохранить, уже получила версию, поэтому сохраняется копия
+                User user = entry.getValue();
+                User copy = new User(user.getLogin(), user.getName(), user.getPassword(), new HashSet<>(user.getRoles()));
+                try {
+                    userRepository.persist(copy);
+                    persisted.add(copy);
+                } catch (DataIntegrityViolationException duplicate) {
+                    if(!isDuplicateKey(duplicate))
+                    {
+                        throw duplicate;
+                    }
+                    errors.put(entry.getKey(), Collections.singletonList("Login занят"));
+                }
+            }
+        }
+        persisted.forEach(user -> {
+            loginFilter.add(user.getLogin());
+            userCache.invalidate(user.getLogin());
+            indexRolesAfterCommit(user.getLogin(), user.getRoles());
+            userChangeFeed.publishAfterCommit(UserChangeEvent.Type.USER_ADDED, user.getLogin(), user.getName(), roleNames(user.getRoles()));
+        });
+        if(!persisted.isEmpty())
+        {
+            userChangeCounter.incrementAfterCommit();
+        }
     }
 
     /**
      * Функция обновления данных пользователя.
+     * Метод выполняется в две фазы, чтобы соединение с БД не удерживалось на время хэширования.
+     * Сначала без транзакции читается только хэш пароля, новый пароль сравнивается с ним через
+     * {@link PasswordHasher#matches(String, String)} и хэшируется, только если он изменился. Совпавший пароль
+     * перехэшируется, если хэш сохранен в явном виде или по старым настройкам ({@link PasswordHasher#needsUpgrade(String)}).
+     * Затем в одной короткой транзакции пользователь загружается вместе с ролями и изменяются только отличающиеся поля:
+     * добавляются только те роли, которых у пользователя еще нет, а UPDATE содержит только измененные колонки
+     * (см. {@link org.hibernate.annotations.DynamicUpdate} на {@link User}). Если ничего не изменилось, запись не выполняется.
+     * Если пароль изменился между фазами или версия пользователя изменилась до коммита (например, параллельный
+     * {@link #addRoleToUser(String, String)}), то обе фазы повторяются, всего не больше {@link #UPDATE_ATTEMPTS} раз.
+     * При смене пароля проверенный пароль удаляется из {@link CredentialCache} до и после коммита.
      * @param user - пользователь с новыми данными.
-     * @throws UserServiceException - хранит в себе все ошибки, которые могут произойти во время работы логина.
-     *      Основная задача - собрать ошибки формато-логического контроля и отправить их пользователю.
+     * @return ошибки формато-логического контроля. Если ошибок нет, то {@link ValidationResult#SUCCESS}
+     * @throws com.github.gimazdo.testcasecodmark.Exception.PasswordHasherBusyException если очередь хэширования паролей заполнена
      */
     @Override
-    public void updateUser(User user) throws UserServiceException
+    @Timed(SERVICE_TIMER)
+    public ValidationResult updateUser(User user)
     {
-        UserServiceException exception = new UserServiceException();
         if(user.getLogin()==null)
         {
-            exception.getErrors().add("Логин не может быть пустым");
+            return ValidationResult.error("Логин не может быть пустым");
         }
-        User oldUser = userRepository.findUserByLogin(user.getLogin());
-        if(oldUser==null)
+        for(int attempt = 1; ; attempt++)
         {
-            exception.getErrors().add("Пользователя не существует");
-            throw  exception;
+            try {
+                return tryUpdateUser(user);
+            } catch (OptimisticLockingFailureException e) {
+                if(attempt >= UPDATE_ATTEMPTS)
+                {
+                    log.debug("User {} was modified concurrently {} times", user.getLogin(), attempt);
+                    return ValidationResult.error("Пользователь был изменен другим запросом, повторите попытку");
+                }
+            }
         }
-        if(user.getPassword()!=null) {
-            if( UserUtil.checkPassword(user.getPassword()))
+    }
+
+    /**
+     * Одна попытка {@link #updateUser(User)}
+     * @throws OptimisticLockingFailureException если пользователя параллельно изменил другой запрос
+     */
+    private ValidationResult tryUpdateUser(User user)
+    {
+        String login = user.getLogin();
+        String storedPassword = userRepository.findPasswordByLogin(login);
+        if(storedPassword==null)
+        {
+            return ValidationResult.error("Пользователя не существует");
+        }
+        List<String> errors = new ArrayList<>();
+        boolean passwordValid = user.getPassword()==null || UserUtil.checkPassword(user.getPassword(), passwordPolicy);
+        boolean passwordMatches = user.getPassword()!=null && passwordHasher.matches(user.getPassword(), storedPassword);
+        if(!passwordValid && !passwordMatches)
+        {
+            errors.add(passwordPolicy.getErrorMessage());
+        }
+        List<Role> roles = new ArrayList<>();
+        if(user.getRoles()!=null) {
+            Map<String, Role> existingRoles = findRoles(user.getRoles());
+            for(Role r: user.getRoles())
             {
-                oldUser.setPassword(user.getPassword());
+                Role role = existingRoles.get(r.getName());
+                if(role==null)
+                {
+                    errors.add("Роли " + r.getName() + " не существует");
+                }
+                else
+                {
+                    roles.add(role);
+                }
             }
-            else
+        }
+        if(errors.size()>0) {
+            return ValidationResult.of(errors);
+        }
+
+        boolean passwordChanged = user.getPassword()!=null && !passwordMatches;
+        String newPassword = passwordChanged ? passwordHasher.hash(user.getPassword())
+                : passwordMatches ? upgradedHash(user.getPassword(), storedPassword) : null;
+
+        return transactionTemplate.execute(status -> {
+            User oldUser = userRepository.findWithRolesByLogin(login);
+            if(oldUser==null)
             {
-                exception.getErrors().add("Password должен содержать хотя бы 1 заглавную букву и 1 цифру");
+                return ValidationResult.error("Пользователя не существует");
             }
-        }
-        if(user.getName()!=null) {oldUser.setName(user.getName());}
-        if(user.getRoles()!=null) {user.getRoles().forEach(p-> {
-            try{
-                addRoleToUser(oldUser.getLogin(), p.getName());
+            if(user.getPassword()!=null && !storedPassword.equals(oldUser.getPassword()))
+            {
+                throw new ObjectOptimisticLockingFailureException(User.class, login);
+            }
+            boolean changed = false;
+            if(newPassword!=null)
+            {
+                oldUser.setPassword(newPassword);
+                changed = true;
             }
-            catch (UserServiceException e) {
-                exception.getErrors().addAll(e.getErrors());
+            if(user.getName()!=null && !user.getName().equals(oldUser.getName()))
+            {
+                oldUser.setName(user.getName());
+                changed = true;
             }
-        });}
-        if(exception.getErrors().size()>0) {
-            throw exception;
-        }
-        userRepository.save(user);
+            List<Role> missingRoles = new ArrayList<>();
+            for(Role role: roles)
+            {
+                if(oldUser.getRoles()==null || !oldUser.getRoles().contains(role))
+                {
+                    missingRoles.add(role);
+                }
+            }
+            if(!missingRoles.isEmpty())
+            {
+                if(oldUser.getRoles()==null) {oldUser.setRoles(new HashSet<>());}
+                // Роли из RoleCache не связаны с текущим контекстом, и save загружал бы каждую отдельным запросом.
+                // Недостающие роли загружаются в контекст одним запросом.
+                List<Long> missingIds = new ArrayList<>();
+                missingRoles.forEach(role -> missingIds.add(role.getId()));
+                oldUser.getRoles().addAll(roleRepository.findAllById(missingIds));
+                indexRolesAfterCommit(oldUser.getLogin(), missingRoles);
+                changed = true;
+            }
+            if(!changed)
+            {
+                return ValidationResult.SUCCESS;
+            }
+            userRepository.save(oldUser);
+            if(passwordChanged)
+            {
+                String storedLogin = oldUser.getLogin();
+                credentialCache.invalidate(storedLogin);
+                TransactionUtil.afterCommit(() -> credentialCache.invalidate(storedLogin));
+            }
+            userCache.invalidate(oldUser.getLogin());
+            userChangeCounter.incrementAfterCommit();
+            userChangeFeed.publishAfterCommit(UserChangeEvent.Type.USER_UPDATED, oldUser.getLogin(), oldUser.getName(), roleNames(oldUser.getRoles()));
+            return ValidationResult.SUCCESS;
+        });
     }
+
     /**
      * Функция удаления пользователя.
+     * Сначала читается логин в том виде, в котором он сохранен в БД: логин сравнивается без учета регистра,
+     * а {@link LoginFilter} и {@link RoleMembershipIndex} хранят сохраненный логин. Затем удаление выполняется
+     * двумя запросами без загрузки сущности: сначала строки users_roles, затем строка users.
+     * Если пользователь удален параллельно, это определяется по количеству удаленных строк.
      * @param login - логин пользователя
-     * @throws UserServiceException - хранит в себе все ошибки, которые могут произойти во время работы логина.
-     *      Основная задача - собрать ошибки формато-логического контроля и отправить их пользователю.
+     * @return ошибки формато-логического контроля. Если ошибок нет, то {@link ValidationResult#SUCCESS}
      */
+    @Transactional
     @Override
-    public void deleteUser(String login) throws UserServiceException {
+    @Timed(SERVICE_TIMER)
+    public ValidationResult deleteUser(String login) {
         if(login==null)
         {
-            UserServiceException exception = new UserServiceException();
-            exception.getErrors().add("Login не может быть пустым");
-            throw  exception;
+            return ValidationResult.error("Login не может быть пустым");
         }
-        User userForDelete = userRepository.findUserByLogin(login);
-        if(userForDelete==null)
+        String storedLogin = userRepository.findStoredLogin(login);
+        if(storedLogin==null)
         {
-            UserServiceException exception = new UserServiceException();
-            exception.getErrors().add("Пользователя не существует");
-            throw  exception;
+            return ValidationResult.error("Пользователя не существует");
         }
-
-        userRepository.delete(userForDelete);
+        userRepository.deleteRolesOfUser(storedLogin);
+        if(userRepository.deleteByLoginReturningCount(storedLogin)==0)
+        {
+            TransactionUtil.setRollbackOnly();
+            return ValidationResult.error("Пользователя не существует");
+        }
+        userCache.invalidate(storedLogin);
+        credentialCache.invalidate(storedLogin);
+        TransactionUtil.afterCommit(() -> credentialCache.invalidate(storedLogin));
+        TransactionUtil.afterCommit(() -> loginFilter.remove(storedLogin));
+        TransactionUtil.afterCommit(() -> roleMembershipIndex.remove(storedLogin));
+        userChangeCounter.incrementAfterCommit();
+        userChangeFeed.publishAfterCommit(UserChangeEvent.Type.USER_DELETED, storedLogin, null, null);
+        return ValidationResult.SUCCESS;
     }
 
     /**
-     * Функция добавления роли пользователю
+     * Функция добавления роли пользователю.
+     * Пользователь не загружается: читается только логин в том виде, в котором он сохранен в БД, а строка users_roles
+     * вставляется, только если ее еще нет. Поэтому одновременное добавление одной роли не создает дубликатов.
+     * В {@link RoleMembershipIndex} и ленту изменений попадает сохраненный логин, даже если передан логин в другом регистре.
      * @param login логин пользователя, которому добавляется роль
      * @param roleName название роли, которую нужно добавить
+     * @return ошибки формато-логического контроля. Если ошибок нет, то {@link ValidationResult#SUCCESS}
      */
     @Transactional
     @Override
-    public void addRoleToUser(String login, String roleName) throws UserServiceException {
-        UserServiceException exception = new UserServiceException();
+    @Timed(SERVICE_TIMER)
+    public ValidationResult addRoleToUser(String login, String roleName) {
+        List<String> errors = new ArrayList<>();
         if(login==null)
         {
-            exception.getErrors().add("Логин не может быть пустым");
+            errors.add("Логин не может быть пустым");
         }
         if(roleName==null)
         {
-            exception.getErrors().add("RoleName не может быть пустым");
+            errors.add("RoleName не может быть пустым");
         }
-        if(exception.getErrors().size()>0) {
-            throw exception;
+        if(errors.size()>0) {
+            return ValidationResult.of(errors);
         }
-        User user = userRepository.findUserByLogin(login);
-        Role role = roleRepository.findByName(roleName);
+        String storedLogin = userRepository.findStoredLogin(login);
+        Role role = roleCache.findByName(roleName);
 
-        if(user==null)
+        if(storedLogin==null)
         {
-            exception.getErrors().add("Пользователя не существует");
+            errors.add("Пользователя не существует");
         }
         if(role==null)
         {
-            exception.getErrors().add("Роли "+roleName + " не существует");
+            errors.add("Роли "+roleName + " не существует");
+        }
+        if(errors.size()>0) {
+            return ValidationResult.of(errors);
         }
-        if(exception.getErrors().size()>0) {
-            throw exception;
+        int inserted;
+        try {
+            inserted = userRepository.insertRoleIfAbsent(storedLogin, role.getId());
+        } catch (DataIntegrityViolationException e) {
+            // пользователь удален после проверки, а БД сообщила о нарушении внешнего ключа
+            TransactionUtil.setRollbackOnly();
+            return ValidationResult.error("Пользователя не существует");
         }
-        if(user.getRoles().contains(role))
+        if(inserted==0)
         {
-            exception.getErrors().add("У пользователя уже есть данная роль");
-            throw exception;
+            // insert ignore пропускает и дубликат, и нарушение внешнего ключа, если пользователь удален после проверки
+            return ValidationResult.error(userRepository.findStoredLogin(storedLogin)!=null ? "У пользователя уже есть данная роль" : "Пользователя не существует");
         }
-
-        user.getRoles().add(role);
-        userRepository.save(user);
+        userRepository.incrementVersion(storedLogin);
+        userCache.invalidate(storedLogin);
+        indexRolesAfterCommit(storedLogin, Collections.singleton(role));
+        userChangeFeed.publishAfterCommit(UserChangeEvent.Type.USER_ROLE_ADDED, storedLogin, null, Collections.singletonList(role.getName()));
+        return ValidationResult.SUCCESS;
     }
 
     /**
      * Функция добавления новой роли
      * @param role роль, которую нужно добавить
-     * @throws UserServiceException выбрасывается, если роль уже существует
+     * @return ошибку, если роль уже существует. Если ошибок нет, то {@link ValidationResult#SUCCESS}
      */
     @Override
-    public void addRole(Role role) throws UserServiceException {
-        UserServiceException exception = new UserServiceException();
+    @Timed(SERVICE_TIMER)
+    public ValidationResult addRole(Role role) {
         if(role.getName()==null)
         {
-            exception.getErrors().add("Name не должен быть пустым");
-            throw exception;
+            return ValidationResult.error("Name не должен быть пустым");
         }
-        if( roleRepository.findByName(role.getName())!=null || (role.getId()!=null && roleRepository.getById(role.getId())!=null))
+        if( roleCache.findByName(role.getName())!=null || (role.getId()!=null && roleRepository.getById(role.getId())!=null))
         {
-            exception.getErrors().add("Роль уже существует");
-            throw exception;
+            return ValidationResult.error("Роль уже существует");
         }
 
         roleRepository.save(role);
+        roleCache.put(role);
+        userChangeFeed.publishAfterCommit(UserChangeEvent.Type.ROLE_ADDED, null, null, Collections.singletonList(role.getName()));
+        return ValidationResult.SUCCESS;
     }
 
+    /**
+     * Проверка роли пользователя по {@link RoleMembershipIndex}. Пока индекс не заполнен, проверка выполняется в БД.
+     * @param login логин пользователя
+     * @param roleName название роли
+     * @return true - у пользователя есть роль, false - нет роли или пользователя не существует
+     */
+    @Override
+    @Timed(SERVICE_TIMER)
+    public boolean hasRole(String login, String roleName) {
+        if(roleMembershipIndex.isReady())
+        {
+            return roleMembershipIndex.hasRole(login, roleName);
+        }
+        return userRepository.hasRole(login, roleName);
+    }
 
+    /**
+     * Поиск пользователей по ролям через {@link RoleMembershipIndex}, без обращения к БД.
+     * @param roleNames названия ролей
+     * @param matchAll true - у пользователя должны быть все роли, false - хотя бы одна
+     * @param offset количество пропускаемых пользователей
+     * @param limit размер страницы, приводится к диапазону от 1 до {@link #MAX_PAGE_SIZE}
+     * @return страница логинов и общее количество найденных пользователей
+     * @throws RoleMembershipIndexNotReadyException если индекс еще заполняется после запуска
+     */
+    @Override
+    @Timed(SERVICE_TIMER)
+    public UsersPage findUsersByRoles(Collection<String> roleNames, boolean matchAll, int offset, int limit) {
+        if(!roleMembershipIndex.isReady())
+        {
+            throw new RoleMembershipIndexNotReadyException();
+        }
+        return roleMembershipIndex.find(roleNames, matchAll, Math.max(0, offset), Math.max(1, Math.min(limit, MAX_PAGE_SIZE)));
+    }
 
+    /**
+     * Проверка логина и пароля.
+     * Недавно проверенный пароль подтверждается через {@link CredentialCache} без обращения к БД и без хэширования.
+     * Иначе из БД читается только хэш пароля, без сущности и ролей, и сравнивается через {@link PasswordHasher}.
+     * Для несуществующего логина пароль сравнивается со случайным хэшем, поэтому обе ветки выполняют одну проверку хэша.
+     * Если хэш сохранен в явном виде или по старым настройкам, то после успешной проверки он пересчитывается и заменяется.
+     * @param login логин пользователя
+     * @param password пароль в явном виде
+     * @return ошибку, если пользователя нет или пароль не совпадает. Если ошибок нет, то {@link ValidationResult#SUCCESS}
+     * @throws com.github.gimazdo.testcasecodmark.Exception.PasswordHasherBusyException если очередь хэширования паролей заполнена
+     */
+    @Override
+    @Timed(SERVICE_TIMER)
+    public ValidationResult authenticate(String login, String password) {
+        if(login==null || password==null)
+        {
+            return ValidationResult.error("Неверный логин или пароль");
+        }
+        if(credentialCache.isVerified(login, password))
+        {
+            return ValidationResult.SUCCESS;
+        }
+        long invalidation = credentialCache.currentInvalidation();
+        String storedPassword = userRepository.findPasswordByLogin(login);
+        if(!passwordHasher.matches(password, storedPassword))
+        {
+            return ValidationResult.error("Неверный логин или пароль");
+        }
+        String upgraded = upgradedHash(password, storedPassword);
+        if(upgraded!=null && userRepository.updatePasswordIfUnchanged(login, storedPassword, upgraded) > 0)
+        {
+            userCache.invalidate(login);
+        }
+        credentialCache.put(login, password, invalidation);
+        return ValidationResult.SUCCESS;
+    }
+
+    /**
+     * Новый хэш успешно проверенного пароля, если сохраненный хэш нужно пересчитать по текущим настройкам.
+     * Пароли, сохраненные в явном виде до перехода на хэширование, так постепенно заменяются хэшами.
+     * Если очередь хэширования заполнена, то хэш не пересчитывается и будет пересчитан при следующей проверке.
+     * @param rawPassword пароль в явном виде, совпавший с сохраненным хэшем
+     * @param storedPassword сохраненный хэш
+     * @return новый хэш или null, если пересчитывать не нужно или сейчас нельзя
+     */
+    private String upgradedHash(String rawPassword, String storedPassword)
+    {
+        if(!passwordHasher.needsUpgrade(storedPassword))
+        {
+            return null;
+        }
+        try {
+            return passwordHasher.hash(rawPassword);
+        } catch (PasswordHasherBusyException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Добавление ролей пользователя в {@link RoleMembershipIndex} после коммита текущей транзакции
+     */
+    private void indexRolesAfterCommit(String login, Collection<Role> roles)
+    {
+        if(roles==null || roles.isEmpty())
+        {
+            return;
+        }
+        List<String> roleNames = roleNames(roles);
+        TransactionUtil.afterCommit(() -> roleMembershipIndex.add(login, roleNames));
+    }
+
+    /**
+     * Названия ролей для {@link UserChangeFeed}
+     */
+    private static List<String> roleNames(Collection<Role> roles)
+    {
+        if(roles==null)
+        {
+            return Collections.emptyList();
+        }
+        return roles.stream().map(Role::getName).collect(Collectors.toList());
+    }
+
+    /**
+     * Проверка, что нарушение целостности вызвано повтором первичного или уникального ключа,
+     * а не, например, слишком длинным значением или пустой обязательной колонкой
+     */
+    private static boolean isDuplicateKey(DataIntegrityViolationException e)
+    {
+        for(Throwable cause = e; cause!=null; cause = cause.getCause())
+        {
+            if(cause instanceof SQLException)
+            {
+                SQLException sqlException = (SQLException) cause;
+                return sqlException.getErrorCode()==MYSQL_DUPLICATE_ENTRY || SQL_STATE_UNIQUE_VIOLATION.equals(sqlException.getSQLState());
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Поиск запрошенных ролей одним запросом вместо запроса на каждую роль
+     * @param requestedRoles роли из запроса, у которых заполнено только название
+     * @return существующие роли по названию. Роли, которых нет в результате, не существуют.
+     */
+    private Map<String, Role> findRoles(Collection<Role> requestedRoles)
+    {
+        Set<String> names = new HashSet<>();
+        requestedRoles.forEach(r -> names.add(r.getName()));
+        return roleCache.findAllByName(names);
+    }
 }
@@ -0,0 +1,96 @@
+package com.github.gimazdo.testcasecodmark.Util;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Правило пароля по минимальной длине и обязательным классам символов.
+ * Пароль проверяется за один проход по строке без регулярных выражений и без создания объектов.
+ * Классы символов: заглавные латинские буквы, строчные латинские буквы, цифры 0-9 и все остальные символы.
+ * Пароль с переводом строки никогда не проходит проверку, как и с прежним паттерном {@code ^(?=.*[A-Z])(?=.*\d).+$}.
+ */
+@Getter
+@AllArgsConstructor
+public class CharacterClassPasswordPolicy implements PasswordPolicy {
+    /**
+     * Сообщение об ошибке правила по умолчанию
+     */
+    public static final String DEFAULT_ERROR_MESSAGE = "Password должен содержать хотя бы 1 заглавную букву и 1 цифру";
+
+    /**
+     * Правило по умолчанию: хотя бы 1 заглавная буква и 1 цифра
+     */
+    public static final CharacterClassPasswordPolicy DEFAULT =
+            new CharacterClassPasswordPolicy(1, true, false, true, false, DEFAULT_ERROR_MESSAGE);
+
+    /**
+     * Минимальная длина пароля
+     */
+    private final int minLength;
+    /**
+     * Нужна ли заглавная латинская буква
+     */
+    private final boolean requireUppercase;
+    /**
+     * Нужна ли строчная латинская буква
+     */
+    private final boolean requireLowercase;
+    /**
+     * Нужна ли цифра
+     */
+    private final boolean requireDigit;
+    /**
+     * Нужен ли символ, который не является латинской буквой или цифрой
+     */
+    private final boolean requireSpecial;
+    /**
+     * Сообщение об ошибке
+     */
+    private final String errorMessage;
+
+    @Override
+    public boolean check(String password) {
+        int length = password.length();
+        if(length==0 || length < minLength)
+        {
+            return false;
+        }
+        boolean uppercase = !requireUppercase;
+        boolean lowercase = !requireLowercase;
+        boolean digit = !requireDigit;
+        boolean special = !requireSpecial;
+        for(int i = 0; i < length; i++)
+        {
+            char c = password.charAt(i);
+            if(c >= 'A' && c <= 'Z')
+            {
+                uppercase = true;
+            }
+            else if(c >= 'a' && c <= 'z')
+            {
+                lowercase = true;
+            }
+            else if(c >= '0' && c <= '9')
+            {
+                digit = true;
+            }
+            else if(isLineTerminator(c))
+            {
+                return false;
+            }
+            else
+            {
+                special = true;
+            }
+        }
+        return uppercase && lowercase && digit && special;
+    }
+
+    /**
+     * Символы, которые не совпадают с "." в регулярных выражениях Java
+     */
+    private static boolean isLineTerminator(char c)
+    {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+}
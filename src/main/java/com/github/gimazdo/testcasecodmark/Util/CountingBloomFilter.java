@@ -0,0 +1,148 @@
+package com.github.gimazdo.testcasecodmark.Util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Потокобезопасный счетный фильтр Блума для строк.
+ * В отличие от обычного фильтра Блума поддерживает удаление: вместо битов хранятся 4-битные счетчики.
+ * {@link #mightContain(String)} может вернуть true для строки, которой нет в фильтре,
+ * но для добавленной и не удаленной строки всегда возвращает true.
+ * Переполненный счетчик больше не изменяется, чтобы удаление не приводило к ложным отрицательным ответам.
+ */
+public class CountingBloomFilter {
+
+    private static final int COUNTER_BITS = 4;
+
+    private static final int COUNTERS_PER_WORD = Long.SIZE / COUNTER_BITS;
+
+    private static final long COUNTER_MAX = (1L << COUNTER_BITS) - 1;
+
+    private final AtomicLongArray counters;
+
+    private final long counterCount;
+
+    private final int hashCount;
+
+    /**
+     * @param expectedInsertions ожидаемое количество строк в фильтре
+     * @param falsePositiveProbability допустимая вероятность ложного положительного ответа при expectedInsertions строк
+     */
+    public CountingBloomFilter(long expectedInsertions, double falsePositiveProbability)
+    {
+        long n = Math.max(1, expectedInsertions);
+        this.counterCount = Math.max(COUNTERS_PER_WORD,
+                (long) Math.ceil(-n * Math.log(falsePositiveProbability) / (Math.log(2) * Math.log(2))));
+        this.hashCount = Math.max(1, (int) Math.round((double) counterCount / n * Math.log(2)));
+        this.counters = new AtomicLongArray(Math.toIntExact((counterCount + COUNTERS_PER_WORD - 1) / COUNTERS_PER_WORD));
+    }
+
+    /**
+     * Добавление строки в фильтр
+     */
+    public void add(String value)
+    {
+        long hash = hash(value);
+        long h1 = mix(hash);
+        long h2 = mix(hash ^ 0x9E3779B97F4A7C15L) | 1;
+        for(int i = 0; i < hashCount; i++)
+        {
+            update(Math.floorMod(h1 + i * h2, counterCount), 1);
+        }
+    }
+
+    /**
+     * Удаление ранее добавленной строки из фильтра
+     */
+    public void remove(String value)
+    {
+        long hash = hash(value);
+        long h1 = mix(hash);
+        long h2 = mix(hash ^ 0x9E3779B97F4A7C15L) | 1;
+        for(int i = 0; i < hashCount; i++)
+        {
+            update(Math.floorMod(h1 + i * h2, counterCount), -1);
+        }
+    }
+
+    /**
+     * Проверка наличия строки в фильтре
+     * @return false - строки точно нет в фильтре, true - строка может быть в фильтре
+     */
+    public boolean mightContain(String value)
+    {
+        long hash = hash(value);
+        long h1 = mix(hash);
+        long h2 = mix(hash ^ 0x9E3779B97F4A7C15L) | 1;
+        for(int i = 0; i < hashCount; i++)
+        {
+            if(counter(Math.floorMod(h1 + i * h2, counterCount))==0)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Удаление всех строк из фильтра
+     */
+    public void clear()
+    {
+        for(int i = 0; i < counters.length(); i++)
+        {
+            counters.set(i, 0);
+        }
+    }
+
+    private long counter(long index)
+    {
+        int shift = (int) (index % COUNTERS_PER_WORD) * COUNTER_BITS;
+        return (counters.get((int) (index / COUNTERS_PER_WORD)) >>> shift) & COUNTER_MAX;
+    }
+
+    private void update(long index, int delta)
+    {
+        int word = (int) (index / COUNTERS_PER_WORD);
+        int shift = (int) (index % COUNTERS_PER_WORD) * COUNTER_BITS;
+        long previous;
+        long next;
+        do
+        {
+            previous = counters.get(word);
+            long counter = (previous >>> shift) & COUNTER_MAX;
+            if(counter==COUNTER_MAX || (delta < 0 && counter==0))
+            {
+                return;
+            }
+            next = previous + ((long) delta << shift);
+        }
+        while(!counters.compareAndSet(word, previous, next));
+    }
+
+    /**
+     * 64-битный FNV-1a хэш по символам строки
+     */
+    private static long hash(String value)
+    {
+        long hash = 0xcbf29ce484222325L;
+        for(int i = 0; i < value.length(); i++)
+        {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Перемешивание битов хэша (финализатор MurmurHash3)
+     */
+    private static long mix(long hash)
+    {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,18 @@
+package com.github.gimazdo.testcasecodmark.Util;
+
+/**
+ * Правило проверки пароля пользователя
+ */
+public interface PasswordPolicy {
+    /**
+     * Проверка пароля на соответствие правилу
+     * @param password пароль, который проверяется
+     * @return true - соответствует, false - не соответствует
+     */
+    boolean check(String password);
+
+    /**
+     * @return сообщение об ошибке, если пароль не соответствует правилу
+     */
+    String getErrorMessage();
+}
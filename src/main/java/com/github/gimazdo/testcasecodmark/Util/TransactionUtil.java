@@ -0,0 +1,44 @@
+package com.github.gimazdo.testcasecodmark.Util;
+
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Вспомогательные функции для работы с транзакциями
+ */
+public class TransactionUtil {
+    /**
+     * Выполнение действия после успешного коммита текущей транзакции.
+     * Если транзакции нет, то действие выполняется сразу.
+     * @param action действие
+     */
+    public static void afterCommit(Runnable action)
+    {
+        if(TransactionSynchronizationManager.isSynchronizationActive())
+        {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        }
+        else
+        {
+            action.run();
+        }
+    }
+
+    /**
+     * Пометка текущей транзакции на откат без выброса исключения.
+     * Если транзакции нет, то ничего не происходит.
+     */
+    public static void setRollbackOnly()
+    {
+        if(TransactionSynchronizationManager.isActualTransactionActive())
+        {
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+        }
+    }
+}
@@ -1,8 +1,12 @@
 package com.github.gimazdo.testcasecodmark.Util;
 
-import com.github.gimazdo.testcasecodmark.Exception.UserServiceException;
 import com.github.gimazdo.testcasecodmark.Model.User;
+import com.github.gimazdo.testcasecodmark.dto.ValidationResult;
 
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 import java.util.regex.Pattern;
 
 /**
@@ -10,48 +14,90 @@ import java.util.regex.Pattern;
  */
 public class UserUtil {
     /**
-     * Паттерн пароля
+     * Диакритические знаки после разложения символа в {@link Normalizer.Form#NFD}
      */
-    public static final Pattern passwordPattern = Pattern.compile("^(?=.*[A-Z])(?=.*\\d).+$");
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
 
     /**
-     * Проверка пароля на соответствие паттерну
+     * Ключ логина для кэшей в памяти.
+     * Колонка users.login сравнивается без учета регистра и диакритики (utf8mb4_0900_ai_ci),
+     * поэтому "Alice", "alice" и "Alicé" - один пользователь, и у них должен быть один ключ.
+     * @param login логин в том виде, в котором его передал клиент или в котором он сохранен в БД
+     * @return логин в нижнем регистре без диакритики
+     */
+    public static String loginKey(String login)
+    {
+        String key = login.toLowerCase(Locale.ROOT);
+        for(int i = 0; i < key.length(); i++)
+        {
+            if(key.charAt(i) >= 0x80)
+            {
+                return COMBINING_MARKS.matcher(Normalizer.normalize(key, Normalizer.Form.NFD)).replaceAll("");
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Проверка пароля на соответствие правилу по умолчанию {@link CharacterClassPasswordPolicy#DEFAULT}
      * @param password пароль, который проверяется
      * @return true - соответствует, false - не соответствует
      */
     public static boolean checkPassword(String password)
     {
-        return passwordPattern.matcher(password).matches();
+        return checkPassword(password, CharacterClassPasswordPolicy.DEFAULT);
+    }
+
+    /**
+     * Проверка пароля на соответствие правилу
+     * @param password пароль, который проверяется
+     * @param passwordPolicy правило пароля
+     * @return true - соответствует, false - не соответствует
+     */
+    public static boolean checkPassword(String password, PasswordPolicy passwordPolicy)
+    {
+        return passwordPolicy.check(password);
+    }
+
+    /**
+     * Проверка всех полей {@link User} с правилом пароля по умолчанию
+     * @param user пользователь которого нужно проверить
+     * @return Возвращает ошибки при проверке. Если ошибок нет, то {@link ValidationResult#SUCCESS}
+     */
+    public static ValidationResult validateUser(User user)
+    {
+        return validateUser(user, CharacterClassPasswordPolicy.DEFAULT);
     }
 
     /**
      * Проверка всех полей {@link User}
      * @param user пользователь которого нужно проверить
-     * @return Возвращает ошибки при проверке. Если массив пустой, значит все ОК
+     * @param passwordPolicy правило пароля
+     * @return Возвращает ошибки при проверке. Если ошибок нет, то {@link ValidationResult#SUCCESS}
      */
-    public static UserServiceException validateUser(User user)
+    public static ValidationResult validateUser(User user, PasswordPolicy passwordPolicy)
     {
-        UserServiceException exception = new UserServiceException();
+        List<String> errors = new ArrayList<>();
         if(user.getLogin()==null)
         {
-            exception.getErrors().add("Login не может быть пустым");
+            errors.add("Login не может быть пустым");
         }
         if(user.getName()==null)
         {
-            exception.getErrors().add("Name не может быть пустым");
+            errors.add("Name не может быть пустым");
         }
         if(user.getPassword()==null)
         {
-            exception.getErrors().add("Password не может быть пустым");
+            errors.add("Password не может быть пустым");
         }
         else
         {
-            if(!UserUtil.checkPassword(user.getPassword()))
+            if(!UserUtil.checkPassword(user.getPassword(), passwordPolicy))
             {
-                exception.getErrors().add("Password должен содержать хотя бы 1 заглавную букву и 1 цифру");
+                errors.add(passwordPolicy.getErrorMessage());
             }
         }
-        return exception;
+        return ValidationResult.of(errors);
     }
 
 }
@@ -0,0 +1,25 @@
+package com.github.gimazdo.testcasecodmark.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * ResultMessage - ответ функций изменения пользователей и ролей.
+ * {success: true} или {success: false, errors: {массив ошибок}}
+ */
+@Getter
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ResultMessage {
+    /**
+     * Поле, хранящее признак успешного выполнения
+     */
+    private final boolean success;
+    /**
+     * Поле, хранящее список ошибок. При успешном выполнении не заполняется
+     */
+    private final List<String> errors;
+}
@@ -0,0 +1,69 @@
+package com.github.gimazdo.testcasecodmark.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Событие ленты изменений пользователей и ролей.
+ * Пароль в событие не попадает.
+ */
+@Data
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class UserChangeEvent {
+
+    /**
+     * Тип изменения
+     */
+    public enum Type {
+        /**
+         * Добавлен пользователь. Заполнены login, name и roles
+         */
+        USER_ADDED,
+        /**
+         * Изменен пользователь. Заполнены login, name и roles после изменения
+         */
+        USER_UPDATED,
+        /**
+         * Удален пользователь. Заполнен login
+         */
+        USER_DELETED,
+        /**
+         * Добавлена роль. В roles название роли
+         */
+        ROLE_ADDED,
+        /**
+         * Пользователю добавлена роль. Заполнены login и roles с названием роли
+         */
+        USER_ROLE_ADDED,
+        /**
+         * Пропущенных событий уже нет в буфере, список нужно перечитать через /getUsers
+         * и продолжить с id этого события. Отправляется и после перезапуска приложения
+         */
+        RESET
+    }
+
+    /**
+     * Номер события. Номера возрастают в порядке коммитов и начинаются заново после перезапуска
+     */
+    private long sequence;
+    /**
+     * Тип изменения
+     */
+    private Type type;
+    /**
+     * Логин пользователя
+     */
+    private String login;
+    /**
+     * Имя пользователя
+     */
+    private String name;
+    /**
+     * Названия ролей
+     */
+    private List<String> roles;
+}
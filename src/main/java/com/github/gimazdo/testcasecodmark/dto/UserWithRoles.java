@@ -0,0 +1,48 @@
+package com.github.gimazdo.testcasecodmark.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.github.gimazdo.testcasecodmark.Model.Role;
+import com.github.gimazdo.testcasecodmark.Model.User;
+import lombok.Data;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Класс DTO для отображения {@link User} вместе с его ролями.
+ * Заполняется внутри транзакции, поэтому при сериализации не нужно обращаться к БД.
+ * Хэш пароля не содержит, поэтому ответ с этим DTO можно хранить в общих кэшах.
+ */
+@Data
+public class UserWithRoles {
+    /**
+     * Логин пользователя
+     */
+    private String login;
+    /**
+     * Имя пользователя
+     */
+    private String name;
+    /**
+     * Роли пользователя
+     */
+    private Set<Role> roles;
+    /**
+     * Версия пользователя, из которой строится ETag. В JSON не выводится
+     */
+    @JsonIgnore
+    private long version;
+
+    /**
+     * Конструктор для конвертации {@link User} в {@link UserWithRoles}
+     * @param user - пользователь с загруженными ролями
+     */
+    public UserWithRoles(User user)
+    {
+        this.login = user.getLogin();
+        this.name = user.getName();
+        this.roles = user.getRoles()==null ? Collections.emptySet() : new HashSet<>(user.getRoles());
+        this.version = user.getVersion();
+    }
+}
@@ -28,4 +28,15 @@ public class UserWithoutRoles {
         this.login = user.getLogin();
         this.name = user.getName();
     }
+
+    /**
+     * Конструктор для проекции в запросах репозитория
+     * @param login - логин пользователя
+     * @param name - имя пользователя
+     */
+    public UserWithoutRoles(String login, String name)
+    {
+        this.login = login;
+        this.name = name;
+    }
 }
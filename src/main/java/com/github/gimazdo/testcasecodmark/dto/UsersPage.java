@@ -0,0 +1,22 @@
+package com.github.gimazdo.testcasecodmark.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Страница логинов пользователей вместе с общим количеством найденных пользователей
+ */
+@Data
+@AllArgsConstructor
+public class UsersPage {
+    /**
+     * Количество всех найденных пользователей
+     */
+    private long total;
+    /**
+     * Логины пользователей на странице
+     */
+    private List<String> logins;
+}
@@ -0,0 +1,54 @@
+package com.github.gimazdo.testcasecodmark.dto;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * ValidationResult - результат проверки данных пользователя или роли.
+ * В отличие от исключения не хранит стек вызовов, а успешный результат всегда один и тот же объект {@link #SUCCESS}.
+ */
+@Getter
+@EqualsAndHashCode
+@ToString
+public final class ValidationResult {
+    /**
+     * Успешный результат без ошибок
+     */
+    public static final ValidationResult SUCCESS = new ValidationResult(Collections.emptyList());
+
+    /**
+     * Поле хранящее список ошибок
+     */
+    private final List<String> errors;
+
+    private ValidationResult(List<String> errors) {
+        this.errors = errors;
+    }
+
+    /**
+     * Результат с одной ошибкой
+     * @param error текст ошибки
+     */
+    public static ValidationResult error(String error) {
+        return new ValidationResult(Collections.singletonList(error));
+    }
+
+    /**
+     * Результат по списку ошибок
+     * @param errors ошибки. Если список пустой, то возвращается {@link #SUCCESS}
+     */
+    public static ValidationResult of(List<String> errors) {
+        return errors.isEmpty() ? SUCCESS : new ValidationResult(errors);
+    }
+
+    /**
+     * @return true - ошибок нет, false - есть хотя бы одна ошибка
+     */
+    public boolean isSuccess() {
+        return errors.isEmpty();
+    }
+}
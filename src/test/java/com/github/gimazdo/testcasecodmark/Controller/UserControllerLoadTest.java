@@ -0,0 +1,384 @@
+package com.github.gimazdo.testcasecodmark.Controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.gimazdo.testcasecodmark.TestCaseCodmarkApplication;
+import lombok.extern.slf4j.Slf4j;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.File;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Нагрузочный тест всех endpoint {@link UserController} на H2 в памяти.
+ * Приложение запускается целиком, БД заполняется пользователями и ролями, затем несколько потоков-клиентов
+ * отправляют смешанные запросы по HTTP. Пропускная способность и p50/p95/p99 задержки по каждому endpoint
+ * сохраняются в JSON файл.
+ * Тест помечен тегом load и запускается только в профиле load-test: mvn -Pload-test test
+ */
+@Tag("load")
+@Slf4j
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, classes = TestCaseCodmarkApplication.class)
+@ActiveProfiles("h2")
+class UserControllerLoadTest {
+
+    private static final String JSON = "application/json";
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /**
+     * Количество пользователей, которыми заполняется БД
+     */
+    @Value("${load.users:1000}")
+    private int users;
+
+    /**
+     * Количество ролей, которыми заполняется БД
+     */
+    @Value("${load.roles:10}")
+    private int roles;
+
+    /**
+     * Количество потоков-клиентов
+     */
+    @Value("${load.threads:8}")
+    private int threads;
+
+    /**
+     * Время прогрева, результаты которого не учитываются
+     */
+    @Value("${load.warmup-seconds:3}")
+    private int warmupSeconds;
+
+    /**
+     * Время измерения
+     */
+    @Value("${load.duration-seconds:10}")
+    private int durationSeconds;
+
+    /**
+     * Файл отчета
+     */
+    @Value("${load.report:target/load-test-report.json}")
+    private String report;
+
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+    private final Map<String, EndpointStats> stats = new LinkedHashMap<>();
+
+    private final AtomicInteger uniqueCounter = new AtomicInteger();
+
+    /**
+     * Запрос к одному endpoint и его доля в общей нагрузке
+     */
+    private static class Operation {
+        private final String endpoint;
+        private final int weight;
+        private final RequestFactory requestFactory;
+
+        Operation(String endpoint, int weight, RequestFactory requestFactory) {
+            this.endpoint = endpoint;
+            this.weight = weight;
+            this.requestFactory = requestFactory;
+        }
+    }
+
+    @FunctionalInterface
+    private interface RequestFactory {
+        HttpRequest create(ClientState state) throws Exception;
+    }
+
+    /**
+     * Состояние клиента: пользователи, которых он добавил и может удалить
+     */
+    private static class ClientState {
+        private final Deque<String> createdLogins = new ArrayDeque<>();
+    }
+
+    /**
+     * Счетчики одного endpoint. Задержки хранятся в микросекундах.
+     */
+    private static class EndpointStats {
+        private final Histogram latency = new ConcurrentHistogram(3);
+        private final LongAdder errors = new LongAdder();
+    }
+
+    @Test
+    void mixedLoad() throws Exception
+    {
+        seed();
+        List<Operation> operations = operations();
+        operations.forEach(operation -> stats.put(operation.endpoint, new EndpointStats()));
+
+        run(operations, warmupSeconds);
+        stats.values().forEach(endpointStats -> {
+            endpointStats.latency.reset();
+            endpointStats.errors.reset();
+        });
+        long started = System.nanoTime();
+        run(operations, durationSeconds);
+        double elapsedSeconds = (System.nanoTime() - started) / 1e9;
+
+        writeReport(elapsedSeconds);
+        stats.forEach((endpoint, endpointStats) -> {
+            assertTrue(endpointStats.latency.getTotalCount() > 0, "No requests to " + endpoint);
+            assertEquals(0, endpointStats.errors.sum(), "Failed requests to " + endpoint);
+        });
+    }
+
+    /**
+     * Заполнение БД ролями и пользователями через API, пользователи добавляются пачками через /importUsers
+     */
+    private void seed() throws Exception
+    {
+        for(int i = 0; i < roles; i++)
+        {
+            send(post("/addRole", "{\"name\":\"" + role(i) + "\"}"));
+        }
+        int chunkSize = 500;
+        for(int from = 0; from < users; from += chunkSize)
+        {
+            List<Map<String, Object>> chunk = new ArrayList<>();
+            for(int i = from; i < Math.min(from + chunkSize, users); i++)
+            {
+                chunk.add(user(login(i), role(i % roles), role((i + 1) % roles)));
+            }
+            send(post("/importUsers", objectMapper.writeValueAsString(chunk)));
+        }
+        log.info("Seeded {} users and {} roles", users, roles);
+    }
+
+    private List<Operation> operations()
+    {
+        List<Operation> operations = new ArrayList<>();
+        operations.add(new Operation("GET /getUsers", 2, state -> get("/getUsers").header("Accept-Encoding", "gzip").build()));
+        operations.add(new Operation("GET /getUsers?limit", 10, state -> get("/getUsers?limit=100&after=" + randomLogin()).build()));
+        operations.add(new Operation("GET /exportUsers", 1, state -> get("/exportUsers").build()));
+        operations.add(new Operation("GET /getUser", 10, state -> request("/getUser")
+                .method("GET", HttpRequest.BodyPublishers.ofString("{\"login\":\"" + randomLogin() + "\"}"))
+                .header("Content-Type", JSON).build()));
+        operations.add(new Operation("GET /users/{login}", 15, state -> get("/users/" + randomLogin()).build()));
+        operations.add(new Operation("GET /hasRole", 15, state -> get("/hasRole?login=" + randomLogin() + "&roleName=" + randomRole()).build()));
+        operations.add(new Operation("GET /usersByRoles", 10, state -> get("/usersByRoles?roles=" + randomRole() + "," + randomRole()
+                + "&match=" + (ThreadLocalRandom.current().nextBoolean() ? "all" : "any") + "&limit=50").build()));
+        operations.add(new Operation("POST /authenticate", 10, state -> post("/authenticate",
+                "{\"login\":\"" + randomLogin() + "\",\"password\":\"Passw0rd\"}")));
+        operations.add(new Operation("POST /addUser", 8, state -> {
+            String login = "load-new-" + uniqueCounter.incrementAndGet();
+            state.createdLogins.add(login);
+            return post("/addUser", objectMapper.writeValueAsString(user(login, randomRole())));
+        }));
+        operations.add(new Operation("POST /importUsers", 2, state -> {
+            List<Map<String, Object>> batch = new ArrayList<>();
+            for(int i = 0; i < 5; i++)
+            {
+                String login = "load-import-" + uniqueCounter.incrementAndGet();
+                state.createdLogins.add(login);
+                batch.add(user(login, randomRole()));
+            }
+            return post("/importUsers", objectMapper.writeValueAsString(batch));
+        }));
+        operations.add(new Operation("PUT /updateUser", 8, state -> put("/updateUser",
+                "{\"login\":\"" + randomLogin() + "\",\"name\":\"Name" + uniqueCounter.incrementAndGet() + "\"}")));
+        operations.add(new Operation("PUT /addRoleToUser", 8, state -> put("/addRoleToUser",
+                "{\"login\":\"" + randomLogin() + "\",\"roleName\":\"" + randomRole() + "\"}")));
+        operations.add(new Operation("DELETE /deleteUser", 5, state -> {
+            String login = state.createdLogins.isEmpty() ? "load-missing" : state.createdLogins.poll();
+            return request("/deleteUser")
+                    .method("DELETE", HttpRequest.BodyPublishers.ofString("{\"login\":\"" + login + "\"}"))
+                    .header("Content-Type", JSON).build();
+        }));
+        operations.add(new Operation("POST /addRole", 1, state -> post("/addRole",
+                "{\"name\":\"load-new-role-" + uniqueCounter.incrementAndGet() + "\"}")));
+        return operations;
+    }
+
+    /**
+     * Отправка запросов из {@link #threads} потоков в течение заданного времени
+     */
+    private void run(List<Operation> operations, int seconds) throws Exception
+    {
+        int totalWeight = operations.stream().mapToInt(operation -> operation.weight).sum();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> clients = new ArrayList<>();
+            for(int t = 0; t < threads; t++)
+            {
+                clients.add(executor.submit(() -> {
+                    ClientState state = new ClientState();
+                    while(System.nanoTime() < deadline)
+                    {
+                        Operation operation = pick(operations, totalWeight);
+                        EndpointStats endpointStats = stats.get(operation.endpoint);
+                        long start = System.nanoTime();
+                        try {
+                            HttpResponse<byte[]> response = client.send(operation.requestFactory.create(state), HttpResponse.BodyHandlers.ofByteArray());
+                            if(response.statusCode() >= 400)
+                            {
+                                endpointStats.errors.increment();
+                            }
+                        } catch (Exception e) {
+                            endpointStats.errors.increment();
+                        }
+                        endpointStats.latency.recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+                    }
+                    return null;
+                }));
+            }
+            for(Future<?> client: clients)
+            {
+                client.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void writeReport(double elapsedSeconds) throws Exception
+    {
+        Map<String, Object> config = new LinkedHashMap<>();
+        config.put("users", users);
+        config.put("roles", roles);
+        config.put("threads", threads);
+        config.put("warmupSeconds", warmupSeconds);
+        config.put("durationSeconds", durationSeconds);
+
+        Map<String, Object> endpoints = new LinkedHashMap<>();
+        long totalRequests = 0;
+        for(Map.Entry<String, EndpointStats> entry: stats.entrySet())
+        {
+            Histogram latency = entry.getValue().latency;
+            Map<String, Object> endpoint = new LinkedHashMap<>();
+            endpoint.put("requests", latency.getTotalCount());
+            endpoint.put("errors", entry.getValue().errors.sum());
+            endpoint.put("throughputPerSecond", latency.getTotalCount() / elapsedSeconds);
+            endpoint.put("p50Ms", latency.getValueAtPercentile(50) / 1000.0);
+            endpoint.put("p95Ms", latency.getValueAtPercentile(95) / 1000.0);
+            endpoint.put("p99Ms", latency.getValueAtPercentile(99) / 1000.0);
+            endpoint.put("maxMs", latency.getMaxValue() / 1000.0);
+            endpoints.put(entry.getKey(), endpoint);
+            totalRequests += latency.getTotalCount();
+            log.info("{}: {}", entry.getKey(), endpoint);
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("config", config);
+        result.put("elapsedSeconds", elapsedSeconds);
+        result.put("throughputPerSecond", totalRequests / elapsedSeconds);
+        result.put("endpoints", endpoints);
+
+        File file = new File(report);
+        if(file.getParentFile()!=null)
+        {
+            file.getParentFile().mkdirs();
+        }
+        objectMapper.writerWithDefaultPrettyPrinter().writeValue(file, result);
+        log.info("Load test report written to {}", file.getAbsolutePath());
+    }
+
+    private static Operation pick(List<Operation> operations, int totalWeight)
+    {
+        int value = ThreadLocalRandom.current().nextInt(totalWeight);
+        for(Operation operation: operations)
+        {
+            value -= operation.weight;
+            if(value < 0)
+            {
+                return operation;
+            }
+        }
+        return operations.get(operations.size() - 1);
+    }
+
+    private void send(HttpRequest request) throws Exception
+    {
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, response.statusCode(), response.body());
+    }
+
+    private Map<String, Object> user(String login, String... roleNames)
+    {
+        List<Map<String, String>> userRoles = new ArrayList<>();
+        for(String roleName: roleNames)
+        {
+            userRoles.add(Map.of("name", roleName));
+        }
+        Map<String, Object> user = new LinkedHashMap<>();
+        user.put("login", login);
+        user.put("name", "Name");
+        user.put("password", "Passw0rd");
+        user.put("roles", userRoles);
+        return user;
+    }
+
+    private String randomLogin()
+    {
+        return login(ThreadLocalRandom.current().nextInt(users));
+    }
+
+    private String randomRole()
+    {
+        return role(ThreadLocalRandom.current().nextInt(roles));
+    }
+
+    private static String login(int i)
+    {
+        return "load-" + i;
+    }
+
+    private static String role(int i)
+    {
+        return "load-role-" + i;
+    }
+
+    private HttpRequest.Builder request(String path)
+    {
+        return HttpRequest.newBuilder(URI.create("http://localhost:" + port + path));
+    }
+
+    private HttpRequest.Builder get(String path)
+    {
+        return request(path).GET();
+    }
+
+    private HttpRequest post(String path, String body)
+    {
+        return request(path).POST(HttpRequest.BodyPublishers.ofString(body)).header("Content-Type", JSON).build();
+    }
+
+    private HttpRequest put(String path, String body)
+    {
+        return request(path).PUT(HttpRequest.BodyPublishers.ofString(body)).header("Content-Type", JSON).build();
+    }
+}
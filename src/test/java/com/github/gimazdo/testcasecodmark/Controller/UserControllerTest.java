@@ -0,0 +1,182 @@
+package com.github.gimazdo.testcasecodmark.Controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.gimazdo.testcasecodmark.Metrics.SqlStatementCounter;
+import com.github.gimazdo.testcasecodmark.Model.Role;
+import com.github.gimazdo.testcasecodmark.Model.User;
+import com.github.gimazdo.testcasecodmark.Service.UserService;
+import com.github.gimazdo.testcasecodmark.TestCaseCodmarkApplication;
+import com.github.gimazdo.testcasecodmark.dto.UserWithoutRoles;
+import com.github.gimazdo.testcasecodmark.dto.ValidationResult;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.github.gimazdo.testcasecodmark.Metrics.SqlStatementAssertions.assertStatementCount;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+
+/**
+ * Тесты ответов контроллера на H2 в памяти
+ */
+@SpringBootTest(classes = TestCaseCodmarkApplication.class)
+@AutoConfigureMockMvc
+@ActiveProfiles("h2")
+class UserControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private SqlStatementCounter sqlStatementCounter;
+
+    /**
+     * Ответ в том виде, в котором его раньше возвращал контроллер через HashMap
+     */
+    private byte[] previousResultMessage(ValidationResult result) throws Exception {
+        HashMap<String, Object> resultMessage = new HashMap<>();
+        resultMessage.put("success", result.isSuccess());
+        if(!result.isSuccess()) {
+            resultMessage.put("errors", result.getErrors());
+        }
+        return objectMapper.writeValueAsBytes(resultMessage);
+    }
+
+    private MockHttpServletResponse perform(RequestBuilder request) throws Exception {
+        MockHttpServletResponse response = mockMvc.perform(request).andReturn().getResponse();
+        assertEquals(200, response.getStatus());
+        assertEquals(MediaType.APPLICATION_JSON_VALUE, response.getContentType());
+        return response;
+    }
+
+    private void assertSameJson(byte[] expected, byte[] actual) throws Exception {
+        assertEquals(objectMapper.readTree(expected), objectMapper.readTree(actual));
+    }
+
+    /**
+     * Тест на то, что ответы {@link ResultMessageWriter} совпадают с прежним JSON из HashMap:
+     * успешный ответ совпадает побайтно, ответ с ошибками - по содержимому, тип ответа - application/json
+     */
+    @Test
+    void resultMessagesMatchPreviousJson() throws Exception {
+        MockHttpServletResponse response = perform(post("/addRole").contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsBytes(new Role(null, "ControllerRole"))));
+        assertArrayEquals(previousResultMessage(ValidationResult.SUCCESS), response.getContentAsByteArray());
+
+        response = perform(post("/addUser").contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsBytes(new User("ControllerLogin", "Name", "Passw0rd", null))));
+        assertArrayEquals(previousResultMessage(ValidationResult.SUCCESS), response.getContentAsByteArray());
+
+        response = perform(post("/addUser").contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsBytes(new User(null, null, null, null))));
+        assertSameJson(previousResultMessage(ValidationResult.of(Arrays.asList(
+                "Login не может быть пустым", "Name не может быть пустым", "Password не может быть пустым"))),
+                response.getContentAsByteArray());
+
+        response = perform(put("/addRoleToUser").contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsBytes(Map.of("login", "ControllerMissing", "roleName", "ControllerRole"))));
+        assertSameJson(previousResultMessage(ValidationResult.error("Пользователя не существует")),
+                response.getContentAsByteArray());
+
+        response = perform(delete("/deleteUser").contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsBytes(Map.of("login", "ControllerLogin"))));
+        assertArrayEquals(previousResultMessage(ValidationResult.SUCCESS), response.getContentAsByteArray());
+    }
+
+    /**
+     * Тест на условный запрос пользователя: при совпадении ETag возвращается 304 и выполняется только запрос версии,
+     * ответ разрешено хранить в общих кэшах и в нем нет хэша пароля
+     */
+    @Test
+    void userNotModifiedChecksOnlyVersion() throws Exception {
+        assertTrue(userService.addUser(new User("EtagLogin", "Name", "Passw0rd", null)).isSuccess());
+        MockHttpServletResponse response = mockMvc.perform(get("/users/EtagLogin")).andReturn().getResponse();
+        assertEquals(200, response.getStatus());
+        assertEquals("no-cache, public", response.getHeader(HttpHeaders.CACHE_CONTROL));
+        assertFalse(objectMapper.readTree(response.getContentAsByteArray()).has("password"));
+        String eTag = response.getHeader(HttpHeaders.ETAG);
+        assertNotNull(eTag);
+
+        assertStatementCount(sqlStatementCounter, 1, () -> {
+            MockHttpServletResponse notModified = mockMvc.perform(get("/users/EtagLogin").header(HttpHeaders.IF_NONE_MATCH, eTag))
+                    .andReturn().getResponse();
+            assertEquals(304, notModified.getStatus());
+            assertEquals(0, notModified.getContentLength());
+        });
+    }
+
+    /**
+     * Тест на то, что пользователь, удаленный и созданный заново с тем же логином, получает новый ETag,
+     * и клиент со старым ETag получает новые данные, а не 304
+     */
+    @Test
+    void recreatedUserGetsNewETag() throws Exception {
+        assertTrue(userService.addUser(new User("RecreatedLogin", "Name", "Passw0rd", null)).isSuccess());
+        String eTag = mockMvc.perform(get("/users/RecreatedLogin")).andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        assertTrue(userService.deleteUser("RecreatedLogin").isSuccess());
+        Thread.sleep(2);
+        assertTrue(userService.addUser(new User("RecreatedLogin", "Other name", "Passw0rd", null)).isSuccess());
+
+        MockHttpServletResponse response = mockMvc.perform(get("/users/RecreatedLogin").header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andReturn().getResponse();
+        assertEquals(200, response.getStatus());
+        assertNotEquals(eTag, response.getHeader(HttpHeaders.ETAG));
+    }
+
+    /**
+     * Тест на выгрузку пользователей: таймаут асинхронной обработки берется из users.export.timeout,
+     * в ответе по одному пользователю на строку
+     */
+    @Test
+    void exportUsersHasOwnTimeout() throws Exception {
+        assertTrue(userService.addUser(new User("ExportLogin", "Export name", "Passw0rd", null)).isSuccess());
+        MvcResult result = mockMvc.perform(get("/exportUsers")).andReturn();
+        assertTrue(result.getRequest().isAsyncStarted());
+        assertEquals(Duration.ofMinutes(30).toMillis(), result.getRequest().getAsyncContext().getTimeout());
+
+        MockHttpServletResponse response = mockMvc.perform(asyncDispatch(result)).andReturn().getResponse();
+        assertEquals(200, response.getStatus());
+        List<String> lines = Arrays.asList(response.getContentAsString().split("\n"));
+        assertTrue(lines.contains(objectMapper.writeValueAsString(new UserWithoutRoles("ExportLogin", "Export name"))));
+    }
+
+    /**
+     * Тест на выбор сжатого снимка по Accept-Encoding: gzip с q=0 не принимается, * принимает gzip
+     */
+    @Test
+    void gzipSnapshotRespectsQuality() throws Exception {
+        assertEquals("gzip", mockMvc.perform(get("/getUsers").header(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate"))
+                .andReturn().getResponse().getHeader(HttpHeaders.CONTENT_ENCODING));
+        assertEquals("gzip", mockMvc.perform(get("/getUsers").header(HttpHeaders.ACCEPT_ENCODING, "identity, *;q=0.5"))
+                .andReturn().getResponse().getHeader(HttpHeaders.CONTENT_ENCODING));
+
+        MockHttpServletResponse response = mockMvc.perform(get("/getUsers").header(HttpHeaders.ACCEPT_ENCODING, "gzip;q=0, identity"))
+                .andReturn().getResponse();
+        assertEquals(200, response.getStatus());
+        assertNull(response.getHeader(HttpHeaders.CONTENT_ENCODING));
+        assertTrue(objectMapper.readTree(response.getContentAsByteArray()).isArray());
+        assertNull(mockMvc.perform(get("/getUsers").header(HttpHeaders.ACCEPT_ENCODING, "*;q=0.5, GZIP;Q=0"))
+                .andReturn().getResponse().getHeader(HttpHeaders.CONTENT_ENCODING));
+    }
+}
@@ -0,0 +1,38 @@
+package com.github.gimazdo.testcasecodmark.Metrics;
+
+import org.junit.jupiter.api.function.Executable;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Проверки количества SQL запросов, которые выполняет код, для фиксации бюджета запросов в тестах
+ */
+public class SqlStatementAssertions {
+
+    /**
+     * Проверка, что код выполняет ровно expected SQL запросов
+     * @param counter счетчик SQL запросов
+     * @param expected ожидаемое количество запросов
+     * @param executable проверяемый код
+     */
+    public static void assertStatementCount(SqlStatementCounter counter, int expected, Executable executable) {
+        counter.reset();
+        assertDoesNotThrow(executable);
+        assertEquals(expected, counter.getCount(), "Unexpected number of SQL statements");
+    }
+
+    /**
+     * Проверка, что код выполняет не больше max SQL запросов
+     * @param counter счетчик SQL запросов
+     * @param max максимальное количество запросов
+     * @param executable проверяемый код
+     */
+    public static void assertMaxStatementCount(SqlStatementCounter counter, int max, Executable executable) {
+        counter.reset();
+        assertDoesNotThrow(executable);
+        int count = counter.getCount();
+        assertTrue(count <= max, "Expected at most " + max + " SQL statements, but was " + count);
+    }
+}
@@ -0,0 +1,62 @@
+package com.github.gimazdo.testcasecodmark.Metrics;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.gimazdo.testcasecodmark.TestCaseCodmarkApplication;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.actuate.autoconfigure.web.server.LocalManagementPort;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Тесты на то, что статистика отдается только на порту management
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, classes = TestCaseCodmarkApplication.class,
+        properties = "management.server.port=0")
+@ActiveProfiles("h2")
+class StatsEndpointTest {
+
+    @LocalServerPort
+    private int port;
+
+    @LocalManagementPort
+    private int managementPort;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    private HttpResponse<String> get(int port, String path) throws Exception {
+        return client.send(HttpRequest.newBuilder(URI.create("http://localhost:" + port + path)).build(),
+                HttpResponse.BodyHandlers.ofString());
+    }
+
+    /**
+     * Тест на то, что разделы статистики доступны через /actuator/stats, а прежние /stats/* на основном порту - нет
+     */
+    @Test
+    void statsServedOnManagementPortOnly() throws Exception {
+        HttpResponse<String> response = get(managementPort, "/actuator/stats");
+        assertEquals(200, response.statusCode());
+        JsonNode stats = objectMapper.readTree(response.body());
+        for(String section: new String[]{"roleCache", "userCache", "sql", "secondLevelCache"})
+        {
+            assertTrue(stats.has(section), section);
+            assertEquals(200, get(managementPort, "/actuator/stats/" + section).statusCode());
+            assertEquals(404, get(port, "/stats/" + section).statusCode());
+        }
+        assertTrue(objectMapper.readTree(get(managementPort, "/actuator/stats/roleCache").body()).has("hits"));
+        assertEquals(404, get(managementPort, "/actuator/stats/unknown").statusCode());
+        assertEquals(404, get(port, "/actuator/stats").statusCode());
+    }
+}
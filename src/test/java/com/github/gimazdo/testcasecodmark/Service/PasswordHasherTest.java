@@ -0,0 +1,101 @@
+package com.github.gimazdo.testcasecodmark.Service;
+
+import com.github.gimazdo.testcasecodmark.Config.PasswordEncoderConfig;
+import com.github.gimazdo.testcasecodmark.Exception.PasswordHasherBusyException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PasswordHasherTest {
+
+    private final PasswordEncoder passwordEncoder = PasswordEncoderConfig.createPasswordEncoder(PasswordEncoderConfig.BCRYPT, 4, 1);
+
+    /**
+     * Тест на хэширование и проверку паролей, в том числе сохраненных в явном виде до перехода на хэширование
+     */
+    @Test
+    void hashAndMatches() {
+        PasswordHasher passwordHasher = new PasswordHasher(passwordEncoder, 2, 4, new SimpleMeterRegistry());
+
+        String hash = passwordHasher.hash("Passw0rd");
+        assertTrue(hash.startsWith("{bcrypt}"));
+        assertTrue(passwordHasher.matches("Passw0rd", hash));
+        assertFalse(passwordHasher.matches("Password", hash));
+        assertTrue(passwordHasher.matches("Passw0rd", "Passw0rd"));
+        assertFalse(passwordHasher.matches("Passw0rd", null));
+
+        List<String> hashes = passwordHasher.hashAll(Arrays.asList("A1", "B2", "C3"));
+        assertEquals(3, hashes.size());
+        assertTrue(passwordHasher.matches("B2", hashes.get(1)));
+        passwordHasher.destroy();
+    }
+
+    /**
+     * Тест на проверку пароля несуществующего пользователя: пароль сравнивается со случайным хэшем,
+     * поэтому проверка занимает столько же, сколько проверка существующего пользователя
+     */
+    @Test
+    void matchesWithoutHashRunsHashFunction() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        PasswordHasher passwordHasher = new PasswordHasher(passwordEncoder, 1, 1, meterRegistry);
+
+        assertFalse(passwordHasher.matches("Passw0rd", null));
+        assertFalse(passwordHasher.matches("Passw0rd", null));
+        assertFalse(passwordHasher.matches(null, null));
+        assertEquals(2, meterRegistry.get(PasswordHasher.HASH_TIMER).tag("operation", "matches").timer().count());
+        passwordHasher.destroy();
+    }
+
+    /**
+     * Тест на отказ без ожидания, если поток и очередь хэширования заняты
+     */
+    @Test
+    void rejectsWhenSaturated() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        PasswordEncoder blockingEncoder = new PasswordEncoder() {
+            @Override
+            public String encode(CharSequence rawPassword) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return rawPassword.toString();
+            }
+
+            @Override
+            public boolean matches(CharSequence rawPassword, String encodedPassword) {
+                return rawPassword.toString().equals(encodedPassword);
+            }
+        };
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        PasswordHasher passwordHasher = new PasswordHasher(blockingEncoder, 1, 1, meterRegistry);
+
+        CompletableFuture<String> running = CompletableFuture.supplyAsync(() -> passwordHasher.hash("Running"));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        CompletableFuture<String> queued = CompletableFuture.supplyAsync(() -> passwordHasher.hash("Queued"));
+        while(meterRegistry.get("executor.queued").tag("name", PasswordHasher.EXECUTOR_NAME).gauge().value() < 1)
+        {
+            Thread.sleep(1);
+        }
+
+        assertThrows(PasswordHasherBusyException.class, () -> passwordHasher.hash("Rejected"));
+        assertEquals(1, meterRegistry.get(PasswordHasher.HASH_TIMER + ".rejected").counter().count());
+
+        release.countDown();
+        assertEquals("Running", running.get(5, TimeUnit.SECONDS));
+        assertEquals("Queued", queued.get(5, TimeUnit.SECONDS));
+        assertEquals(2, meterRegistry.get(PasswordHasher.HASH_TIMER).tag("operation", "hash").timer().count());
+        passwordHasher.destroy();
+    }
+}
@@ -0,0 +1,83 @@
+package com.github.gimazdo.testcasecodmark.Service;
+
+import com.github.gimazdo.testcasecodmark.Repository.UserRepository;
+import com.github.gimazdo.testcasecodmark.dto.UserRole;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RoleMembershipIndexTest {
+
+    private final UserRepository userRepository = Mockito.mock(UserRepository.class);
+
+    private final RoleMembershipIndex index = new RoleMembershipIndex(userRepository);
+
+    /**
+     * Тест на изменения во время заполнения: удаление, закоммиченное во время чтения users_roles,
+     * не отменяется прочитанными после него строками, а добавленные роли попадают в индекс
+     */
+    @Test
+    void mutationsDuringBuildReplayed() {
+        Iterator<UserRole> rows = Arrays.asList(new UserRole("Role", "Kept"), new UserRole("Role", "Deleted")).iterator();
+        Iterator<UserRole> stream = new Iterator<UserRole>() {
+            @Override
+            public boolean hasNext() {
+                return rows.hasNext();
+            }
+
+            @Override
+            public UserRole next() {
+                UserRole next = rows.next();
+                if(next.getLogin().equals("Deleted"))
+                {
+                    // строка прочитана до удаления, а удаление закоммичено во время чтения
+                    index.remove("Deleted");
+                    index.add("Added", Collections.singleton("Role"));
+                }
+                return next;
+            }
+        };
+        Mockito.when(userRepository.streamAllUserRoles())
+                .thenReturn(StreamSupport.stream(Spliterators.spliteratorUnknownSize(stream, 0), false));
+
+        assertFalse(index.isReady());
+        index.build();
+
+        assertTrue(index.isReady());
+        assertTrue(index.hasRole("Kept", "Role"));
+        assertFalse(index.hasRole("Deleted", "Role"));
+        assertTrue(index.hasRole("Added", "Role"));
+        assertEquals(Arrays.asList("Kept", "Added"), index.find(Collections.singleton("Role"), true, 0, 10).getLogins());
+    }
+
+    /**
+     * Тест на повторное использование id: при добавлении и удалении пользователей пространство id не растет,
+     * а новый пользователь не получает роли удаленного
+     */
+    @Test
+    void idsReused() {
+        Mockito.when(userRepository.streamAllUserRoles()).thenReturn(Stream.empty());
+        index.build();
+        index.add("Kept", Collections.singleton("Role"));
+        for(int i = 0; i < 1000; i++)
+        {
+            index.add("Churn" + i, Arrays.asList("Role", "Other"));
+            index.remove("Churn" + i);
+        }
+        assertEquals(2, index.getIdCount());
+
+        index.add("New", Collections.singleton("Other"));
+        assertFalse(index.hasRole("New", "Role"));
+        assertEquals(Collections.singletonList("Kept"), index.find(Collections.singleton("Role"), true, 0, 10).getLogins());
+        assertEquals(Collections.singletonList("New"), index.find(Collections.singleton("Other"), true, 0, 10).getLogins());
+        assertEquals(2, index.getIdCount());
+    }
+}
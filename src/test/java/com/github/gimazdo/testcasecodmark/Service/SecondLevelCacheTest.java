@@ -0,0 +1,93 @@
+package com.github.gimazdo.testcasecodmark.Service;
+
+import com.github.gimazdo.testcasecodmark.Metrics.SqlStatementCounter;
+import com.github.gimazdo.testcasecodmark.Model.Role;
+import com.github.gimazdo.testcasecodmark.Model.User;
+import com.github.gimazdo.testcasecodmark.Repository.RoleRepository;
+import com.github.gimazdo.testcasecodmark.TestCaseCodmarkApplication;
+import com.github.gimazdo.testcasecodmark.dto.UserWithRoles;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import javax.persistence.Cache;
+import javax.persistence.EntityManagerFactory;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import static com.github.gimazdo.testcasecodmark.Metrics.SqlStatementAssertions.assertStatementCount;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Тесты кэша второго уровня Hibernate на H2 в памяти
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, classes = TestCaseCodmarkApplication.class)
+@ActiveProfiles("h2")
+class SecondLevelCacheTest {
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private UserCache userCache;
+
+    @Autowired
+    private RoleRepository roleRepository;
+
+    @Autowired
+    private SqlStatementCounter sqlStatementCounter;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    /**
+     * Тест на то, что роли, загруженные вместе с пользователем, попадают в кэш ролей,
+     * и повторная загрузка роли по id не обращается к БД
+     */
+    @Test
+    void rolesCachedAfterFindByLogin()
+    {
+        assertTrue(userService.addRole(new Role(null, "CachedRole1")).isSuccess());
+        assertTrue(userService.addRole(new Role(null, "CachedRole2")).isSuccess());
+        assertTrue(userService.addUser(new User("CachedLogin", "Name", "Passw0rd",
+                new HashSet<>(Arrays.asList(new Role(null, "CachedRole1"), new Role(null, "CachedRole2"))))).isSuccess());
+        Cache cache = entityManagerFactory.getCache();
+        cache.evict(Role.class);
+
+        userCache.invalidate("CachedLogin");
+        AtomicReference<UserWithRoles> user = new AtomicReference<>();
+        assertStatementCount(sqlStatementCounter, 1, () -> user.set(userService.findByLogin("CachedLogin")));
+        Set<Role> roles = user.get().getRoles();
+        assertEquals(new HashSet<>(Arrays.asList("CachedRole1", "CachedRole2")), roles.stream().map(Role::getName).collect(Collectors.toSet()));
+        for(Role role: roles)
+        {
+            assertTrue(cache.contains(Role.class, role.getId()));
+            assertStatementCount(sqlStatementCounter, 0, () -> assertEquals(role, roleRepository.findById(role.getId()).orElse(null)));
+        }
+    }
+
+    /**
+     * Тест на то, что native запросы addRoleToUser и deleteUser не очищают кэш ролей
+     */
+    @Test
+    void rolesStayCachedAfterNativeWrites()
+    {
+        assertTrue(userService.addRole(new Role(null, "TargetedRole1")).isSuccess());
+        assertTrue(userService.addRole(new Role(null, "TargetedRole2")).isSuccess());
+        Set<Role> roles = new HashSet<>(Arrays.asList(new Role(null, "TargetedRole1")));
+        assertTrue(userService.addUser(new User("TargetedA", "Name", "Passw0rd", roles)).isSuccess());
+        assertTrue(userService.addUser(new User("TargetedB", "Name", "Passw0rd", roles)).isSuccess());
+        UserWithRoles user = userService.findByLogin("TargetedA");
+        Long roleId = user.getRoles().iterator().next().getId();
+        assertTrue(entityManagerFactory.getCache().contains(Role.class, roleId));
+
+        assertTrue(userService.addRoleToUser("TargetedA", "TargetedRole2").isSuccess());
+        assertTrue(userService.deleteUser("TargetedB").isSuccess());
+        assertTrue(entityManagerFactory.getCache().contains(Role.class, roleId));
+        assertEquals(2, userService.findByLogin("TargetedA").getRoles().size());
+    }
+}
@@ -0,0 +1,98 @@
+package com.github.gimazdo.testcasecodmark.Service;
+
+import com.github.gimazdo.testcasecodmark.Metrics.SqlStatementCounter;
+import com.github.gimazdo.testcasecodmark.Model.Role;
+import com.github.gimazdo.testcasecodmark.Model.User;
+import com.github.gimazdo.testcasecodmark.TestCaseCodmarkApplication;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static com.github.gimazdo.testcasecodmark.Metrics.SqlStatementAssertions.assertStatementCount;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Тесты бюджета SQL запросов сервиса на H2 в памяти с настоящими репозиториями
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, classes = TestCaseCodmarkApplication.class)
+@ActiveProfiles("h2")
+class SqlStatementBudgetTest {
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private SqlStatementCounter sqlStatementCounter;
+
+    /**
+     * Тест на то, что ошибки валидации не обращаются к БД
+     */
+    @Test
+    void validationFailuresIssueNoStatements()
+    {
+        assertStatementCount(sqlStatementCounter, 0, () -> assertFalse(userService.addUser(new User(null, null, null, null)).isSuccess()));
+        assertStatementCount(sqlStatementCounter, 0, () -> assertFalse(userService.deleteUser(null).isSuccess()));
+        assertStatementCount(sqlStatementCounter, 0, () -> assertFalse(userService.addRoleToUser(null, null).isSuccess()));
+    }
+
+    /**
+     * Тест на то, что счетчик видит запросы настоящих репозиториев: версия читается одним запросом,
+     * удаление несуществующего пользователя - одним запросом сохраненного логина, а удаление существующего -
+     * тремя: логин, роли и пользователь
+     */
+    @Test
+    void repositoryStatementsCounted()
+    {
+        assertTrue(userService.addUser(new User("BudgetLogin", "Name", "Passw0rd", null)).isSuccess());
+        assertStatementCount(sqlStatementCounter, 1, () -> assertNotNull(userService.findVersion("BudgetLogin")));
+        assertStatementCount(sqlStatementCounter, 1, () -> assertFalse(userService.deleteUser("BudgetMissing").isSuccess()));
+        assertStatementCount(sqlStatementCounter, 3, () -> assertTrue(userService.deleteUser("BudgetLogin").isSuccess()));
+    }
+
+    /**
+     * Тест на бюджет добавления роли пользователю, роль берется из кэша ролей: сохраненный логин, вставка и увеличение версии.
+     * Если роль уже есть - сохраненный логин, вставка без изменений и повторная проверка логина
+     */
+    @Test
+    void addRoleToUserBudget()
+    {
+        assertTrue(userService.addRole(new Role(null, "BudgetRole")).isSuccess());
+        assertTrue(userService.addUser(new User("BudgetRoleLogin", "Name", "Passw0rd", null)).isSuccess());
+        assertStatementCount(sqlStatementCounter, 3, () -> assertTrue(userService.addRoleToUser("BudgetRoleLogin", "BudgetRole").isSuccess()));
+        assertStatementCount(sqlStatementCounter, 3, () -> assertFalse(userService.addRoleToUser("BudgetRoleLogin", "BudgetRole").isSuccess()));
+    }
+
+    /**
+     * Тест на то, что количество запросов при изменении пользователя с ролями не зависит от количества ролей:
+     * пароль, пользователь с ролями, недостающие роли, обновление пользователя и вставка ролей одной пачкой
+     */
+    @Test
+    void updateUserWithRolesBudget()
+    {
+        for(int i = 1; i <= 4; i++)
+        {
+            assertTrue(userService.addRole(new Role(null, "BudgetUpdateRole" + i)).isSuccess());
+        }
+        assertTrue(userService.addUser(new User("BudgetUpdateOne", "Name", "Passw0rd", null)).isSuccess());
+        assertTrue(userService.addUser(new User("BudgetUpdateMany", "Name", "Passw0rd", null)).isSuccess());
+        assertStatementCount(sqlStatementCounter, 5, () -> assertTrue(userService.updateUser(new User("BudgetUpdateOne", "New name", null,
+                roles("BudgetUpdateRole1"))).isSuccess()));
+        assertStatementCount(sqlStatementCounter, 5, () -> assertTrue(userService.updateUser(new User("BudgetUpdateMany", "New name", null,
+                roles("BudgetUpdateRole1", "BudgetUpdateRole2", "BudgetUpdateRole3", "BudgetUpdateRole4"))).isSuccess()));
+        assertEquals(4, userService.findByLogin("BudgetUpdateMany").getRoles().size());
+    }
+
+    private static Set<Role> roles(String... names)
+    {
+        Set<Role> roles = new HashSet<>();
+        for(String name: names)
+        {
+            roles.add(new Role(null, name));
+        }
+        return roles;
+    }
+}
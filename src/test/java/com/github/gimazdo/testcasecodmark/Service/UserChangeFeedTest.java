@@ -0,0 +1,231 @@
+package com.github.gimazdo.testcasecodmark.Service;
+
+import com.github.gimazdo.testcasecodmark.dto.UserChangeEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserChangeFeedTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final UserChangeFeed feed = new UserChangeFeed(3, 2, 2, 2, Duration.ofSeconds(10), meterRegistry);
+
+    @AfterEach
+    void destroy() {
+        feed.destroy();
+    }
+
+    /**
+     * Получатель, который складывает события в очередь
+     */
+    private static class CollectingSink implements UserChangeFeed.Sink {
+        private final BlockingQueue<UserChangeEvent> events = new LinkedBlockingQueue<>();
+
+        @Override
+        public void send(UserChangeEvent event) {
+            events.add(event);
+        }
+
+        @Override
+        public void close() {
+        }
+
+        UserChangeEvent next() throws InterruptedException {
+            UserChangeEvent event = events.poll(5, TimeUnit.SECONDS);
+            assertNotNull(event);
+            return event;
+        }
+    }
+
+    private void publish(String login) {
+        feed.publishAfterCommit(UserChangeEvent.Type.USER_ADDED, login, "Name", Collections.singletonList("Role"));
+    }
+
+    /**
+     * Тест на доставку новых событий с возрастающими номерами
+     */
+    @Test
+    void deliversNewEvents() throws InterruptedException {
+        publish("Before");
+        CollectingSink sink = new CollectingSink();
+        assertNotNull(feed.subscribe(null, sink));
+        publish("Login1");
+        publish("Login2");
+
+        UserChangeEvent first = sink.next();
+        assertEquals(new UserChangeEvent(2, UserChangeEvent.Type.USER_ADDED, "Login1", "Name", Collections.singletonList("Role")), first);
+        assertEquals(3, sink.next().getSequence());
+        assertTrue(sink.events.isEmpty());
+    }
+
+    /**
+     * Тест на повтор пропущенных событий из буфера и на RESET, если пропущенных событий в буфере уже нет
+     */
+    @Test
+    void replaysFromBuffer() throws InterruptedException {
+        for(int i = 1; i <= 5; i++)
+        {
+            publish("Login" + i);
+        }
+
+        CollectingSink resumed = new CollectingSink();
+        feed.subscribe(feed.eventId(3), resumed);
+        assertEquals("Login4", resumed.next().getLogin());
+        assertEquals("Login5", resumed.next().getLogin());
+
+        CollectingSink tooOld = new CollectingSink();
+        feed.subscribe(feed.eventId(1), tooOld);
+        UserChangeEvent reset = tooOld.next();
+        assertEquals(UserChangeEvent.Type.RESET, reset.getType());
+        assertEquals(5, reset.getSequence());
+        assertTrue(tooOld.events.isEmpty());
+    }
+
+    /**
+     * Тест на RESET по id из прошлого запуска: номера начинаются заново, поэтому тот же номер не означает то же событие
+     */
+    @Test
+    void resetsAfterRestart() throws InterruptedException {
+        publish("Login1");
+        publish("Login2");
+        String lastEventId = feed.eventId(2);
+
+        UserChangeFeed restarted = new UserChangeFeed(3, 2, 2, 2, Duration.ofSeconds(10), new SimpleMeterRegistry());
+        try {
+            restarted.publishAfterCommit(UserChangeEvent.Type.USER_ADDED, "Other1", "Name", null);
+            restarted.publishAfterCommit(UserChangeEvent.Type.USER_ADDED, "Other2", "Name", null);
+            restarted.publishAfterCommit(UserChangeEvent.Type.USER_ADDED, "Other3", "Name", null);
+
+            CollectingSink sink = new CollectingSink();
+            restarted.subscribe(lastEventId, sink);
+            UserChangeEvent reset = sink.next();
+            assertEquals(UserChangeEvent.Type.RESET, reset.getType());
+            assertEquals(3, reset.getSequence());
+
+            CollectingSink invalid = new CollectingSink();
+            restarted.subscribe("2", invalid);
+            assertEquals(UserChangeEvent.Type.RESET, invalid.next().getType());
+        } finally {
+            restarted.destroy();
+        }
+    }
+
+    /**
+     * Получатель, который блокируется на первой отправке до release
+     */
+    private static class BlockingSink implements UserChangeFeed.Sink {
+        private final CountDownLatch release;
+        private final CountDownLatch sending;
+        private final CountDownLatch closed;
+        private final List<UserChangeEvent> received = Collections.synchronizedList(new ArrayList<>());
+
+        BlockingSink(CountDownLatch release, CountDownLatch sending, CountDownLatch closed) {
+            this.release = release;
+            this.sending = sending;
+            this.closed = closed;
+        }
+
+        @Override
+        public void send(UserChangeEvent event) {
+            received.add(event);
+            sending.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void close() {
+            closed.countDown();
+        }
+    }
+
+    /**
+     * Тест на отключение подписчика, который не успевает читать, и на ограничение количества подписчиков.
+     * Получатель закрывается только после завершения текущей отправки
+     */
+    @Test
+    void dropsSlowSubscriber() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch sending = new CountDownLatch(1);
+        CountDownLatch closed = new CountDownLatch(1);
+        BlockingSink slow = new BlockingSink(release, sending, closed);
+        feed.subscribe(null, slow);
+        CollectingSink fast = new CollectingSink();
+        feed.subscribe(null, fast);
+        assertNull(feed.subscribe(null, new CollectingSink()));
+
+        publish("Login1");
+        assertEquals(1, fast.next().getSequence());
+        assertTrue(sending.await(5, TimeUnit.SECONDS));
+        for(int i = 2; i <= 10; i++)
+        {
+            publish("Login" + i);
+            assertEquals(i, fast.next().getSequence());
+        }
+        assertEquals(1, meterRegistry.get(UserChangeFeed.DROPPED_COUNTER).counter().count());
+        assertEquals(1, feed.getSubscriberCount());
+        assertEquals(1, closed.getCount());
+
+        release.countDown();
+        assertTrue(closed.await(5, TimeUnit.SECONDS));
+        assertEquals(1, slow.received.size());
+    }
+
+    /**
+     * Тест на зависших подписчиков, которых больше, чем потоков отправки: они отключаются по users.change-feed.send-timeout,
+     * а остальные подписчики продолжают получать события
+     */
+    @Test
+    void stalledSubscribersDoNotBlockOthers() throws InterruptedException {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        UserChangeFeed timedFeed = new UserChangeFeed(3, 2, 5, 2, Duration.ofMillis(100), registry);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch sending = new CountDownLatch(4);
+        CountDownLatch closed = new CountDownLatch(4);
+        try {
+            for(int i = 0; i < 4; i++)
+            {
+                timedFeed.subscribe(null, new BlockingSink(release, sending, closed));
+            }
+            CollectingSink fast = new CollectingSink();
+            timedFeed.subscribe(null, fast);
+
+            for(int i = 1; i <= 5; i++)
+            {
+                timedFeed.publishAfterCommit(UserChangeEvent.Type.USER_ADDED, "Login" + i, "Name", null);
+                assertEquals(i, fast.next().getSequence());
+            }
+            assertTrue(sending.await(5, TimeUnit.SECONDS));
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while(timedFeed.getSubscriberCount() > 1 && System.nanoTime() < deadline)
+            {
+                Thread.sleep(1);
+            }
+            assertEquals(1, timedFeed.getSubscriberCount());
+            assertEquals(4, registry.get(UserChangeFeed.DROPPED_COUNTER).counter().count());
+
+            release.countDown();
+            assertTrue(closed.await(5, TimeUnit.SECONDS));
+            timedFeed.publishAfterCommit(UserChangeEvent.Type.USER_ADDED, "Login6", "Name", null);
+            assertEquals(6, fast.next().getSequence());
+        } finally {
+            release.countDown();
+            timedFeed.destroy();
+        }
+    }
+}
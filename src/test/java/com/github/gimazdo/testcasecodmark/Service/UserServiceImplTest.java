@@ -1,13 +1,20 @@
 package com.github.gimazdo.testcasecodmark.Service;
 
-import com.github.gimazdo.testcasecodmark.Exception.UserServiceException;
+import com.github.gimazdo.testcasecodmark.Metrics.SqlStatementCounter;
 import com.github.gimazdo.testcasecodmark.Model.Role;
 import com.github.gimazdo.testcasecodmark.Model.User;
 import com.github.gimazdo.testcasecodmark.Repository.RoleRepository;
 import com.github.gimazdo.testcasecodmark.Repository.UserRepository;
 import com.github.gimazdo.testcasecodmark.TestCaseCodmarkApplication;
+import com.github.gimazdo.testcasecodmark.dto.UserChangeEvent;
 import com.github.gimazdo.testcasecodmark.dto.UserRole;
+import com.github.gimazdo.testcasecodmark.dto.UserWithRoles;
+import com.github.gimazdo.testcasecodmark.dto.UserWithoutRoles;
+import com.github.gimazdo.testcasecodmark.dto.UsersPage;
+import com.github.gimazdo.testcasecodmark.dto.ValidationResult;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.Extensions;
 import org.mockito.ArgumentMatchers;
@@ -15,11 +22,28 @@ import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.AopTestUtils;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.web.bind.annotation.RequestBody;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
 
+import static com.github.gimazdo.testcasecodmark.Metrics.SqlStatementAssertions.assertStatementCount;
 import static org.junit.jupiter.api.Assertions.*;
 
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, classes = TestCaseCodmarkApplication.class)
@@ -34,21 +58,56 @@ class UserServiceImplTest {
     @MockBean
     private RoleRepository roleRepository;
 
+    @Autowired
+    private RoleCache roleCache;
+
+    @Autowired
+    private UserCache userCache;
+
+    @Autowired
+    private LoginFilter loginFilter;
+
+    @Autowired
+    private UserListSnapshot userListSnapshot;
+
+    @Autowired
+    private RoleMembershipIndex roleMembershipIndex;
+
+    @Autowired
+    private PasswordEncoder passwordEncoder;
+
+    @Autowired
+    private CredentialCache credentialCache;
+
+    @Autowired
+    private UserChangeFeed userChangeFeed;
+
+    @Autowired
+    private SqlStatementCounter sqlStatementCounter;
+
+    /**
+     * Кэши общие для всех тестов, поэтому очищаются перед каждым тестом
+     */
+    @BeforeEach
+    void clearCaches() {
+        roleCache.clear();
+        userCache.invalidateAll();
+        loginFilter.clear();
+        roleMembershipIndex.clear();
+        credentialCache.invalidateAll();
+    }
+
     /**
-     * Тест на добавление пользователя без ролей.
+     * Тест на добавление пользователя без ролей. Пароль сохраняется в виде хэша.
      */
     @Test
     void addUserWithoutRoles() {
         User user = new User("Login","Name","Passw0rd",null);
-        try {
-            userService.addUser(user);
-        }
-        catch (UserServiceException e)
-        {
-            e.printStackTrace();
-        }
-        Mockito.verify(userRepository, Mockito.times(1)).save(ArgumentMatchers.any(User.class));
-        Mockito.verify(userRepository, Mockito.times(1)).findUserByLogin(ArgumentMatchers.anyString());
+        assertSame(ValidationResult.SUCCESS, userService.addUser(user));
+        assertTrue(user.getPassword().startsWith("{bcrypt}"));
+        assertTrue(passwordEncoder.matches("Passw0rd", user.getPassword()));
+        Mockito.verify(userRepository, Mockito.times(1)).persist(ArgumentMatchers.any(User.class));
+        Mockito.verify(userRepository, Mockito.times(0)).findUserByLogin(ArgumentMatchers.anyString());
         Mockito.verify(roleRepository,Mockito.times((0))).findByName(ArgumentMatchers.anyString());
     }
 
@@ -60,19 +119,14 @@ class UserServiceImplTest {
         Set<Role> roleSet = new HashSet<>();
         roleSet.add(new Role(null, "Role"));
 
-        Mockito.when(roleRepository.findByName(ArgumentMatchers.anyString())).thenReturn(new Role(Long.valueOf(1),"Role"));
+        Mockito.when(roleRepository.findAllByNameIn(ArgumentMatchers.anyCollection())).thenReturn(Collections.singletonList(new Role(Long.valueOf(1),"Role")));
 
         User user = new User("Login","Name","Passw0rd",roleSet);
-        try {
-            userService.addUser(user);
-        }
-        catch (UserServiceException e)
-        {
-            e.printStackTrace();
-        }
-        Mockito.verify(userRepository, Mockito.times(1)).save(ArgumentMatchers.any(User.class));
-        Mockito.verify(userRepository, Mockito.times(1)).findUserByLogin(ArgumentMatchers.anyString());
-        Mockito.verify(roleRepository,Mockito.times((roleSet.size()))).findByName(ArgumentMatchers.anyString());
+        assertTrue(userService.addUser(user).isSuccess());
+        Mockito.verify(userRepository, Mockito.times(1)).persist(ArgumentMatchers.any(User.class));
+        Mockito.verify(userRepository, Mockito.times(0)).findUserByLogin(ArgumentMatchers.anyString());
+        Mockito.verify(roleRepository,Mockito.times(1)).findAllByNameIn(ArgumentMatchers.anyCollection());
+        Mockito.verify(roleRepository,Mockito.times((0))).findByName(ArgumentMatchers.anyString());
     }
 
     /**
@@ -84,32 +138,30 @@ class UserServiceImplTest {
         Set<Role> roleSet = new HashSet<>();
         roleSet.add(new Role(null, "Role"));
 
-        Mockito.when(roleRepository.findByName(ArgumentMatchers.anyString())).thenReturn(null);
-        UserServiceException exception = Assertions.assertThrows(UserServiceException.class, () -> {
-            User user = new User("Login","Name","Passw0rd",roleSet);
-            userService.addUser(user);
-        });
+        Mockito.when(roleRepository.findAllByNameIn(ArgumentMatchers.anyCollection())).thenReturn(Collections.emptyList());
+        User user = new User("Login","Name","Passw0rd",roleSet);
+        ValidationResult result = userService.addUser(user);
         List<String> errors = new ArrayList<>();
         errors.add("Роли Role не существует");
-        assertEquals(errors, exception.getErrors());
-        Mockito.verify(userRepository, Mockito.times(0)).save(ArgumentMatchers.any(User.class));
-        Mockito.verify(userRepository, Mockito.times(1)).findUserByLogin(ArgumentMatchers.anyString());
-        Mockito.verify(roleRepository,Mockito.times((roleSet.size()))).findByName(ArgumentMatchers.anyString());
+        assertEquals(errors, result.getErrors());
+        Mockito.verify(userRepository, Mockito.times(0)).persist(ArgumentMatchers.any(User.class));
+        Mockito.verify(userRepository, Mockito.times(0)).findUserByLogin(ArgumentMatchers.anyString());
+        Mockito.verify(roleRepository,Mockito.times(1)).findAllByNameIn(ArgumentMatchers.anyCollection());
+        Mockito.verify(roleRepository,Mockito.times((0))).findByName(ArgumentMatchers.anyString());
     }
 
     @Test
     void addUserFailedUserExists()
     {
+        loginFilter.add("Login");
         Mockito.when(userRepository.findUserByLogin(ArgumentMatchers.anyString())).thenReturn(new User());
 
-        UserServiceException exception = Assertions.assertThrows(UserServiceException.class, () -> {
-            User user = new User("Login","Name","password",null);
-            userService.addUser(user);
-        });
+        User user = new User("Login","Name","password",null);
+        ValidationResult result = userService.addUser(user);
         List<String> errors = new ArrayList<>();
         errors.add("Login занят");
-        assertEquals(errors,exception.getErrors());
-        Mockito.verify(userRepository, Mockito.times(0)).save(ArgumentMatchers.any(User.class));
+        assertEquals(errors,result.getErrors());
+        Mockito.verify(userRepository, Mockito.times(0)).persist(ArgumentMatchers.any(User.class));
         Mockito.verify(userRepository, Mockito.times(1)).findUserByLogin(ArgumentMatchers.anyString());
         Mockito.verify(roleRepository,Mockito.times((0))).findByName(ArgumentMatchers.anyString());
     }
@@ -120,15 +172,13 @@ class UserServiceImplTest {
     @Test()
     void addUserFailedByPasswordWrong() {
 
-        UserServiceException exception = Assertions.assertThrows(UserServiceException.class, () -> {
-            User user = new User("Login","Name","password",null);
-            userService.addUser(user);
-        });
+        User user = new User("Login","Name","password",null);
+        ValidationResult result = userService.addUser(user);
         List<String> errors = new ArrayList<>();
         errors.add("Password должен содержать хотя бы 1 заглавную букву и 1 цифру");
-        assertEquals(errors,exception.getErrors());
-        Mockito.verify(userRepository, Mockito.times(0)).save(ArgumentMatchers.any(User.class));
-        Mockito.verify(userRepository, Mockito.times(1)).findUserByLogin(ArgumentMatchers.anyString());
+        assertEquals(errors,result.getErrors());
+        Mockito.verify(userRepository, Mockito.times(0)).persist(ArgumentMatchers.any(User.class));
+        Mockito.verify(userRepository, Mockito.times(0)).findUserByLogin(ArgumentMatchers.anyString());
         Mockito.verify(roleRepository,Mockito.times((0))).findByName(ArgumentMatchers.anyString());
     }
 
@@ -138,15 +188,13 @@ class UserServiceImplTest {
     @Test()
     void addUserFailedByLogin() {
 
-        UserServiceException exception = Assertions.assertThrows(UserServiceException.class, () -> {
-            User user = new User(null,"Name","Passw0rd",null);
-            userService.addUser(user);
-        });
+        User user = new User(null,"Name","Passw0rd",null);
+        ValidationResult result = userService.addUser(user);
         List<String> errors = new ArrayList<>();
         errors.add("Login не может быть пустым");
 
-        assertEquals(errors,exception.getErrors());
-        Mockito.verify(userRepository, Mockito.times(0)).save(ArgumentMatchers.any(User.class));
+        assertEquals(errors,result.getErrors());
+        Mockito.verify(userRepository, Mockito.times(0)).persist(ArgumentMatchers.any(User.class));
         Mockito.verify(userRepository, Mockito.times(0)).findUserByLogin(ArgumentMatchers.anyString());
         Mockito.verify(roleRepository,Mockito.times((0))).findByName(ArgumentMatchers.anyString());
     }
@@ -156,15 +204,13 @@ class UserServiceImplTest {
     @Test()
     void addUserFailedByName() {
 
-        UserServiceException exception = Assertions.assertThrows(UserServiceException.class, () -> {
-            User user = new User("Login",null,"Passw0rd",null);
-            userService.addUser(user);
-        });
+        User user = new User("Login",null,"Passw0rd",null);
+        ValidationResult result = userService.addUser(user);
         List<String> errors = new ArrayList<>();
         errors.add("Name не может быть пустым");
-        assertEquals(errors,exception.getErrors());
-        Mockito.verify(userRepository, Mockito.times(0)).save(ArgumentMatchers.any(User.class));
-        Mockito.verify(userRepository, Mockito.times(1)).findUserByLogin(ArgumentMatchers.anyString());
+        assertEquals(errors,result.getErrors());
+        Mockito.verify(userRepository, Mockito.times(0)).persist(ArgumentMatchers.any(User.class));
+        Mockito.verify(userRepository, Mockito.times(0)).findUserByLogin(ArgumentMatchers.anyString());
         Mockito.verify(roleRepository,Mockito.times((0))).findByName(ArgumentMatchers.anyString());
     }
 
@@ -174,15 +220,13 @@ class UserServiceImplTest {
     @Test()
     void addUserFailedByPasswordNull() {
 
-        UserServiceException exception = Assertions.assertThrows(UserServiceException.class, () -> {
-            User user = new User("Login","Name",null,null);
-            userService.addUser(user);
-        });
+        User user = new User("Login","Name",null,null);
+        ValidationResult result = userService.addUser(user);
         List<String> errors = new ArrayList<>();
         errors.add("Password не может быть пустым");
-        assertEquals(errors,exception.getErrors());
-        Mockito.verify(userRepository, Mockito.times(0)).save(ArgumentMatchers.any(User.class));
-        Mockito.verify(userRepository, Mockito.times(1)).findUserByLogin(ArgumentMatchers.anyString());
+        assertEquals(errors,result.getErrors());
+        Mockito.verify(userRepository, Mockito.times(0)).persist(ArgumentMatchers.any(User.class));
+        Mockito.verify(userRepository, Mockito.times(0)).findUserByLogin(ArgumentMatchers.anyString());
         Mockito.verify(roleRepository,Mockito.times((0))).findByName(ArgumentMatchers.anyString());
     }
     /**
@@ -191,39 +235,66 @@ class UserServiceImplTest {
     @Test()
     void addUserFailedByLoginAndNameAndPassword() {
 
-        UserServiceException exception = Assertions.assertThrows(UserServiceException.class, () -> {
-            User user = new User(null,null,null,null);
-            userService.addUser(user);
-        });
+        User user = new User(null,null,null,null);
+        ValidationResult result = userService.addUser(user);
         List<String> errors = new ArrayList<>();
         errors.add("Login не может быть пустым");
         errors.add("Name не может быть пустым");
         errors.add("Password не может быть пустым");
-        assertEquals(errors,exception.getErrors());
-        Mockito.verify(userRepository, Mockito.times(0)).save(ArgumentMatchers.any(User.class));
+        assertEquals(errors,result.getErrors());
+        Mockito.verify(userRepository, Mockito.times(0)).persist(ArgumentMatchers.any(User.class));
         Mockito.verify(userRepository, Mockito.times(0)).findUserByLogin(ArgumentMatchers.anyString());
         Mockito.verify(roleRepository,Mockito.times((0))).findByName(ArgumentMatchers.anyString());
     }
 
     /**
-     * Тест на удаление пользователя
+     * Тест на ошибку добавления пользователя, если логин занят, но его нет в фильтре логинов
      */
     @Test
-    void deleteUser()
+    void addUserFailedUserExistsNotInFilter()
     {
-        User user = new User("Login", null,null,null);
+        Mockito.doThrow(new DataIntegrityViolationException("Duplicate entry", new SQLException("Duplicate entry", "23000", 1062))).when(userRepository).persist(ArgumentMatchers.any(User.class));
 
-        Mockito.when(userRepository.findUserByLogin(ArgumentMatchers.anyString())).thenReturn(user);
+        User user = new User("Login","Name","Passw0rd",null);
+        ValidationResult result = userService.addUser(user);
+        List<String> errors = new ArrayList<>();
+        errors.add("Login занят");
+        assertEquals(errors,result.getErrors());
+        Mockito.verify(userRepository, Mockito.times(0)).findUserByLogin(ArgumentMatchers.anyString());
+        Mockito.verify(userRepository, Mockito.times(1)).persist(ArgumentMatchers.any(User.class));
+    }
 
-        try
-        {
-            userService.deleteUser(user.getLogin());
-        } catch (UserServiceException e) {
-            e.printStackTrace();
-        }
-        Mockito.verify(userRepository, Mockito.times(1)).delete(ArgumentMatchers.any(User.class));
-        Mockito.verify(userRepository, Mockito.times(1)).findUserByLogin(ArgumentMatchers.anyString());
+    /**
+     * Тест на то, что нарушение целостности, не связанное с занятым логином, не выдается за занятый логин
+     */
+    @Test
+    void addUserDataIntegrityViolationNotDuplicateRethrown()
+    {
+        DataIntegrityViolationException tooLong = new DataIntegrityViolationException("Data too long", new SQLException("Data too long for column 'name'", "22001", 1406));
+        Mockito.doThrow(tooLong).when(userRepository).persist(ArgumentMatchers.any(User.class));
 
+        assertSame(tooLong, assertThrows(DataIntegrityViolationException.class, () -> userService.addUser(new User("Login","Name","Passw0rd",null))));
+    }
+
+    /**
+     * Тест на удаление пользователя по логину в другом регистре: удаляется сохраненный логин,
+     * и он же удаляется из фильтра логинов
+     */
+    @Test
+    void deleteUser()
+    {
+        User user = new User("login", null,null,null);
+        loginFilter.add("Login");
+
+        Mockito.when(userRepository.findStoredLogin("login")).thenReturn("Login");
+        Mockito.when(userRepository.deleteByLoginReturningCount(ArgumentMatchers.anyString())).thenReturn(1);
+
+        assertTrue(userService.deleteUser(user.getLogin()).isSuccess());
+        Mockito.verify(userRepository, Mockito.times(1)).deleteRolesOfUser("Login");
+        Mockito.verify(userRepository, Mockito.times(1)).deleteByLoginReturningCount("Login");
+        Mockito.verify(userRepository, Mockito.times(0)).findUserByLogin(ArgumentMatchers.anyString());
+        Mockito.verify(userRepository, Mockito.times(0)).delete(ArgumentMatchers.any(User.class));
+        assertFalse(loginFilter.mightExist("Login"));
     }
     /**
      * Тест на ошибку при удалении пользователя, потому что его не существует
@@ -233,16 +304,18 @@ class UserServiceImplTest {
     {
         User user = new User("Login", null,null,null);
 
-        Mockito.when(userRepository.findUserByLogin(ArgumentMatchers.anyString())).thenReturn(null);
-        UserServiceException exception = Assertions.assertThrows(UserServiceException.class, () -> {
-
-            userService.deleteUser(user.getLogin());
-        });
+        ValidationResult result = userService.deleteUser(user.getLogin());
         List<String> errors = new ArrayList<>();
         errors.add("Пользователя не существует");
-        assertEquals(errors,exception.getErrors());
-        Mockito.verify(userRepository, Mockito.times(0)).delete(ArgumentMatchers.any(User.class));
-        Mockito.verify(userRepository, Mockito.times(1)).findUserByLogin(ArgumentMatchers.anyString());
+        assertEquals(errors,result.getErrors());
+        Mockito.verify(userRepository, Mockito.times(0)).deleteByLoginReturningCount(ArgumentMatchers.anyString());
+        Mockito.verify(userRepository, Mockito.times(0)).findUserByLogin(ArgumentMatchers.anyString());
+
+        // пользователь удален параллельно после чтения логина
+        Mockito.when(userRepository.findStoredLogin("Login")).thenReturn("Login");
+        Mockito.when(userRepository.deleteByLoginReturningCount(ArgumentMatchers.anyString())).thenReturn(0);
+        assertEquals(errors, userService.deleteUser(user.getLogin()).getErrors());
+        Mockito.verify(userRepository, Mockito.times(1)).deleteByLoginReturningCount("Login");
 
     }
 
@@ -254,15 +327,12 @@ class UserServiceImplTest {
     {
         User user = new User(null, null,null,null);
 
-        UserServiceException exception = Assertions.assertThrows(UserServiceException.class, () -> {
-
-            userService.deleteUser(user.getLogin());
-        });
+        ValidationResult result = userService.deleteUser(user.getLogin());
         List<String> errors = new ArrayList<>();
         errors.add("Login не может быть пустым");
-        assertEquals(errors,exception.getErrors());
-        Mockito.verify(userRepository, Mockito.times(0)).delete(ArgumentMatchers.any(User.class));
-        Mockito.verify(userRepository, Mockito.times(0)).findUserByLogin(ArgumentMatchers.anyString());
+        assertEquals(errors,result.getErrors());
+        Mockito.verify(userRepository, Mockito.times(0)).deleteRolesOfUser(ArgumentMatchers.anyString());
+        Mockito.verify(userRepository, Mockito.times(0)).deleteByLoginReturningCount(ArgumentMatchers.anyString());
     }
 
     /**
@@ -273,20 +343,192 @@ class UserServiceImplTest {
     {
         User user = new User ("Login", "NewName", "NewPassw0rd", null);
 
-        Mockito.when(userRepository.findUserByLogin(ArgumentMatchers.anyString())).thenReturn(new User("Login", "OldName", "0ldPassword", null));
-        try
-        {
-            userService.updateUser(user);
-        } catch (UserServiceException e) {
-            e.printStackTrace();
-        }
+        Mockito.when(userRepository.findPasswordByLogin("Login")).thenReturn("0ldPassword");
+        Mockito.when(userRepository.findWithRolesByLogin(ArgumentMatchers.anyString())).thenReturn(new User("Login", "OldName", "0ldPassword", null));
+        assertTrue(userService.updateUser(user).isSuccess());
 
-        Mockito.verify(userRepository, Mockito.times(1)).findUserByLogin(ArgumentMatchers.anyString());
+        Mockito.verify(userRepository, Mockito.times(1)).findWithRolesByLogin(ArgumentMatchers.anyString());
         Mockito.verify(userRepository, Mockito.times(1)).save(ArgumentMatchers.any(User.class));
     }
 
+    /**
+     * Тест на изменение пароля: новый пароль сравнивается с хэшем старого и сохраняется в виде хэша.
+     */
+    @Test
+    void updateUserPasswordHashed()
+    {
+        User oldUser = new User("Login", "Name", passwordEncoder.encode("0ldPassword"), null);
+        Mockito.when(userRepository.findPasswordByLogin("Login")).thenAnswer(invocation -> oldUser.getPassword());
+        Mockito.when(userRepository.findWithRolesByLogin(ArgumentMatchers.anyString())).thenReturn(oldUser);
+
+        assertTrue(userService.updateUser(new User("Login", null, "0ldPassword", null)).isSuccess());
+        Mockito.verify(userRepository, Mockito.times(0)).save(ArgumentMatchers.any(User.class));
+
+        assertTrue(userService.updateUser(new User("Login", null, "NewPassw0rd", null)).isSuccess());
+        assertTrue(passwordEncoder.matches("NewPassw0rd", oldUser.getPassword()));
+        assertFalse(passwordEncoder.matches("0ldPassword", oldUser.getPassword()));
+        Mockito.verify(userRepository, Mockito.times(1)).save(oldUser);
+    }
+
+    /**
+     * Тест на повтор изменения пользователя, если версия пользователя изменилась до коммита,
+     * и на ошибку, если попытки закончились
+     */
+    @Test
+    void updateUserRetriedAfterConcurrentModification()
+    {
+        Mockito.when(userRepository.findPasswordByLogin("Login")).thenReturn("0ldPassword");
+        Mockito.when(userRepository.findWithRolesByLogin("Login")).thenAnswer(invocation -> new User("Login", "OldName", "0ldPassword", null));
+        Mockito.when(userRepository.save(ArgumentMatchers.any(User.class)))
+                .thenThrow(new ObjectOptimisticLockingFailureException(User.class, "Login"))
+                .thenAnswer(invocation -> invocation.getArgument(0));
+
+        assertSame(ValidationResult.SUCCESS, userService.updateUser(new User("Login", "NewName", null, null)));
+        Mockito.verify(userRepository, Mockito.times(2)).findWithRolesByLogin("Login");
+        Mockito.verify(userRepository, Mockito.times(2)).save(ArgumentMatchers.any(User.class));
+
+        Mockito.when(userRepository.save(ArgumentMatchers.any(User.class))).thenThrow(new ObjectOptimisticLockingFailureException(User.class, "Login"));
+        assertEquals(Collections.singletonList("Пользователь был изменен другим запросом, повторите попытку"),
+                userService.updateUser(new User("Login", "NewName", null, null)).getErrors());
+        Mockito.verify(userRepository, Mockito.times(5)).save(ArgumentMatchers.any(User.class));
+    }
+
+    /**
+     * Тест на изменение пароля между проверкой и записью: новый пароль не сохраняется поверх чужого изменения
+     */
+    @Test
+    void updateUserPasswordChangedConcurrently()
+    {
+        Mockito.when(userRepository.findPasswordByLogin("Login")).thenReturn("0ldPassword");
+        Mockito.when(userRepository.findWithRolesByLogin("Login")).thenAnswer(invocation -> new User("Login", "Name", "0therPassword", null));
+
+        assertEquals(Collections.singletonList("Пользователь был изменен другим запросом, повторите попытку"),
+                userService.updateUser(new User("Login", null, "NewPassw0rd", null)).getErrors());
+        Mockito.verify(userRepository, Mockito.times(0)).save(ArgumentMatchers.any(User.class));
+    }
+
+    /**
+     * Тест на перехэширование пароля, сохраненного в явном виде, после успешной проверки
+     * в {@link UserService#authenticate(String, String)} и {@link UserService#updateUser(User)}
+     */
+    @Test
+    void legacyPasswordUpgraded()
+    {
+        Mockito.when(userRepository.findPasswordByLogin("Login")).thenReturn("Passw0rd");
+        Mockito.when(userRepository.updatePasswordIfUnchanged(ArgumentMatchers.eq("Login"), ArgumentMatchers.eq("Passw0rd"), ArgumentMatchers.anyString())).thenReturn(1);
+
+        assertSame(ValidationResult.SUCCESS, userService.authenticate("Login", "Passw0rd"));
+        Mockito.verify(userRepository, Mockito.times(1)).updatePasswordIfUnchanged(ArgumentMatchers.eq("Login"), ArgumentMatchers.eq("Passw0rd"),
+                ArgumentMatchers.argThat(hash -> hash.startsWith("{bcrypt}") && passwordEncoder.matches("Passw0rd", hash)));
+
+        User oldUser = new User("Login", "Name", "Passw0rd", null);
+        Mockito.when(userRepository.findWithRolesByLogin("Login")).thenReturn(oldUser);
+        assertSame(ValidationResult.SUCCESS, userService.updateUser(new User("Login", "Name", "Passw0rd", null)));
+        assertTrue(oldUser.getPassword().startsWith("{bcrypt}"));
+        assertTrue(passwordEncoder.matches("Passw0rd", oldUser.getPassword()));
+        Mockito.verify(userRepository, Mockito.times(1)).save(oldUser);
+
+        String hash = passwordEncoder.encode("Passw0rd");
+        Mockito.when(userRepository.findPasswordByLogin("Current")).thenReturn(hash);
+        assertSame(ValidationResult.SUCCESS, userService.authenticate("Current", "Passw0rd"));
+        Mockito.verify(userRepository, Mockito.times(0)).updatePasswordIfUnchanged(ArgumentMatchers.eq("Current"), ArgumentMatchers.anyString(), ArgumentMatchers.anyString());
+    }
+
+    /**
+     * Тест на проверку пароля: из БД читается только хэш, повторная проверка того же пароля берется из кэша,
+     * а после смены пароля старый пароль больше не подходит.
+     */
+    @Test
+    void authenticate()
+    {
+        User oldUser = new User("Login", "Name", passwordEncoder.encode("Passw0rd"), null);
+        Mockito.when(userRepository.findPasswordByLogin("Login")).thenAnswer(invocation -> oldUser.getPassword());
+        Mockito.when(userRepository.findWithRolesByLogin("Login")).thenReturn(oldUser);
+
+        assertSame(ValidationResult.SUCCESS, userService.authenticate("Login", "Passw0rd"));
+        assertSame(ValidationResult.SUCCESS, userService.authenticate("Login", "Passw0rd"));
+        Mockito.verify(userRepository, Mockito.times(1)).findPasswordByLogin("Login");
+
+        assertEquals(Collections.singletonList("Неверный логин или пароль"), userService.authenticate("Login", "Wrong1").getErrors());
+        assertFalse(userService.authenticate("Unknown", "Passw0rd").isSuccess());
+        assertFalse(userService.authenticate(null, null).isSuccess());
+
+        assertTrue(userService.updateUser(new User("Login", null, "NewPassw0rd", null)).isSuccess());
+        assertFalse(userService.authenticate("Login", "Passw0rd").isSuccess());
+        assertTrue(userService.authenticate("Login", "NewPassw0rd").isSuccess());
+        Mockito.verify(userRepository, Mockito.times(0)).findUserByLogin(ArgumentMatchers.anyString());
+        Mockito.verify(userRepository, Mockito.times(0)).findWithRolesByLogin("Unknown");
+    }
+
+    /**
+     * Тест на смену пароля и удаление по логину в другом регистре: логин в БД сравнивается без учета регистра,
+     * поэтому проверка, сохраненная по логину в исходном регистре, тоже удаляется из кэша
+     */
+    @Test
+    void authenticateInvalidatedByLoginInOtherCase()
+    {
+        User oldUser = new User("Alice", "Name", passwordEncoder.encode("Passw0rd"), null);
+        Mockito.when(userRepository.findPasswordByLogin(ArgumentMatchers.argThat(l -> l.equalsIgnoreCase("Alice"))))
+                .thenAnswer(invocation -> oldUser.getPassword());
+        Mockito.when(userRepository.findWithRolesByLogin(ArgumentMatchers.argThat(l -> l.equalsIgnoreCase("Alice")))).thenReturn(oldUser);
+
+        assertTrue(userService.authenticate("Alice", "Passw0rd").isSuccess());
+        assertTrue(userService.updateUser(new User("alice", null, "NewPassw0rd", null)).isSuccess());
+        assertFalse(userService.authenticate("Alice", "Passw0rd").isSuccess());
+        assertTrue(userService.authenticate("ALICE", "NewPassw0rd").isSuccess());
+
+        Mockito.when(userRepository.findStoredLogin("alice")).thenReturn("Alice");
+        Mockito.when(userRepository.deleteByLoginReturningCount(ArgumentMatchers.anyString())).thenReturn(1);
+        assertTrue(userService.deleteUser("alice").isSuccess());
+        Mockito.reset(userRepository);
+        assertFalse(userService.authenticate("ALICE", "NewPassw0rd").isSuccess());
+    }
+
+    /**
+     * Тест на ленту изменений: успешные изменения публикуются по порядку, изменения с ошибками не публикуются
+     */
+    @Test
+    void changeFeed() throws InterruptedException
+    {
+        List<UserChangeEvent> events = Collections.synchronizedList(new ArrayList<>());
+        UserChangeFeed.Subscription subscription = userChangeFeed.subscribe(null, new UserChangeFeed.Sink() {
+            @Override
+            public void send(UserChangeEvent event) {
+                events.add(event);
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        long start = userChangeFeed.getLastSequence();
+        Mockito.when(userRepository.findStoredLogin("Login")).thenReturn("Login");
+        Mockito.when(userRepository.deleteByLoginReturningCount("Login")).thenReturn(1);
+        Mockito.when(userRepository.insertRoleIfAbsent("Login", 1L)).thenReturn(1);
+
+        assertTrue(userService.addUser(new User("Login", "Name", "Passw0rd", null)).isSuccess());
+        assertFalse(userService.addUser(new User("Login2", "Name", "password", null)).isSuccess());
+        assertTrue(userService.addRole(new Role(1L, "Role")).isSuccess());
+        assertTrue(userService.addRoleToUser("Login", "Role").isSuccess());
+        assertTrue(userService.deleteUser("Login").isSuccess());
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while(events.size() < 4 && System.nanoTime() < deadline)
+        {
+            Thread.sleep(1);
+        }
+        subscription.cancel();
+        assertEquals(Arrays.asList(
+                new UserChangeEvent(start + 1, UserChangeEvent.Type.USER_ADDED, "Login", "Name", Collections.emptyList()),
+                new UserChangeEvent(start + 2, UserChangeEvent.Type.ROLE_ADDED, null, null, Collections.singletonList("Role")),
+                new UserChangeEvent(start + 3, UserChangeEvent.Type.USER_ROLE_ADDED, "Login", null, Collections.singletonList("Role")),
+                new UserChangeEvent(start + 4, UserChangeEvent.Type.USER_DELETED, "Login", null, null)), events);
+    }
+
     /**
      * Тест на изменение пользователя с изменением его ролей.
+     * Репозитории заменены заглушками, поэтому сервис не должен выполнять SQL запросов сам: бюджет запросов
+     * задается проверенными вызовами репозиториев, а на настоящей БД проверяется в {@link SqlStatementBudgetTest}.
      */
     @Test
     void updateUserWithRoles()
@@ -296,18 +538,17 @@ class UserServiceImplTest {
         User user = new User ("Login", "NewName", "NewPassw0rd", roles);
 
 
-        Mockito.when(userRepository.findUserByLogin(ArgumentMatchers.anyString())).thenReturn(new User("Login", "OldName", "0ldPassword", new HashSet<>()));
-        Mockito.when(roleRepository.findByName(ArgumentMatchers.anyString())).thenReturn(new Role());
-        try
-        {
-            userService.updateUser(user);
-        } catch (UserServiceException e) {
-            e.printStackTrace();
-        }
+        Mockito.when(userRepository.findPasswordByLogin("Login")).thenReturn("0ldPassword");
+        Mockito.when(userRepository.findWithRolesByLogin(ArgumentMatchers.anyString())).thenReturn(new User("Login", "OldName", "0ldPassword", new HashSet<>()));
+        Mockito.when(roleRepository.findAllByNameIn(ArgumentMatchers.anyCollection())).thenReturn(Collections.singletonList(new Role(1L, "Role1")));
+        assertStatementCount(sqlStatementCounter, 0, () -> assertTrue(userService.updateUser(user).isSuccess()));
 
-        Mockito.verify(roleRepository, Mockito.times(roles.size())).findByName(ArgumentMatchers.anyString());
-        Mockito.verify(userRepository, Mockito.times(roles.size()+1)).findUserByLogin(ArgumentMatchers.anyString());
-        Mockito.verify(userRepository, Mockito.times(roles.size()+1)).save(ArgumentMatchers.any(User.class));
+        Mockito.verify(userRepository, Mockito.times(1)).findPasswordByLogin("Login");
+        Mockito.verify(roleRepository, Mockito.times(1)).findAllByNameIn(ArgumentMatchers.anyCollection());
+        Mockito.verify(roleRepository, Mockito.times(0)).findByName(ArgumentMatchers.anyString());
+        Mockito.verify(userRepository, Mockito.times(1)).findWithRolesByLogin(ArgumentMatchers.anyString());
+        Mockito.verify(roleRepository, Mockito.times(1)).findAllById(ArgumentMatchers.anyIterable());
+        Mockito.verify(userRepository, Mockito.times(1)).save(ArgumentMatchers.any(User.class));
 
     }
     /**
@@ -322,21 +563,71 @@ class UserServiceImplTest {
         User user = new User ("Login", "NewName", "NewPassw0rd", roles);
 
 
-        Mockito.when(userRepository.findUserByLogin(ArgumentMatchers.anyString())).thenReturn(new User("Login", "OldName", "0ldPassword", null));
-        Mockito.when(roleRepository.findByName(ArgumentMatchers.anyString())).thenReturn(null);
-        UserServiceException exception = Assertions.assertThrows(UserServiceException.class, () -> {
-
-            userService.updateUser(user);
-        });
+        Mockito.when(userRepository.findPasswordByLogin("Login")).thenReturn("0ldPassword");
+        Mockito.when(roleRepository.findAllByNameIn(ArgumentMatchers.anyCollection())).thenReturn(Collections.emptyList());
+        ValidationResult result = userService.updateUser(user);
         List<String> errors = new ArrayList<>();
         errors.add("Роли Role2 не существует");
         errors.add("Роли Role1 не существует");
-        assertEquals(errors,exception.getErrors());
+        assertEquals(errors,result.getErrors());
+
+        Mockito.verify(roleRepository, Mockito.times(1)).findAllByNameIn(ArgumentMatchers.anyCollection());
+        Mockito.verify(roleRepository, Mockito.times(0)).findByName(ArgumentMatchers.anyString());
+        Mockito.verify(userRepository, Mockito.times(0)).findWithRolesByLogin(ArgumentMatchers.anyString());
+        Mockito.verify(userRepository, Mockito.times(0)).save(ArgumentMatchers.any(User.class));
+    }
+    /**
+     * Тест на изменение ролей пользователя: уже имеющиеся роли пропускаются, добавляются только недостающие.
+     * Все роли ищутся одним запросом, недостающие загружаются в контекст тоже одним запросом.
+     */
+    @Test
+    void updateUserWithRolesAddsOnlyMissingRoles()
+    {
+        Set<Role> roles = new HashSet<>();
+        roles.add(new Role(null,"Role1"));
+        roles.add(new Role(null,"Role2"));
+        User user = new User ("Login", null, null, roles);
+        Set<Role> oldRoles = new HashSet<>();
+        oldRoles.add(new Role(1L, "Role1"));
+        User oldUser = new User("Login", "OldName", "0ldPassword", oldRoles);
+
+        Mockito.when(userRepository.findPasswordByLogin("Login")).thenReturn("0ldPassword");
+        Mockito.when(userRepository.findWithRolesByLogin(ArgumentMatchers.anyString())).thenReturn(oldUser);
+        Mockito.when(roleRepository.findAllByNameIn(ArgumentMatchers.anyCollection())).thenReturn(Arrays.asList(new Role(1L, "Role1"), new Role(2L, "Role2")));
+        Mockito.when(roleRepository.findAllById(Collections.singletonList(2L))).thenReturn(Collections.singletonList(new Role(2L, "Role2")));
+        userService.updateUser(user);
+
+        assertEquals(new HashSet<>(Arrays.asList(new Role(1L, "Role1"), new Role(2L, "Role2"))), oldUser.getRoles());
+        Mockito.verify(roleRepository, Mockito.times(1)).findAllById(ArgumentMatchers.anyIterable());
+        assertEquals("OldName", oldUser.getName());
+        assertEquals("0ldPassword", oldUser.getPassword());
+        Mockito.verify(roleRepository, Mockito.times(1)).findAllByNameIn(ArgumentMatchers.anyCollection());
+        Mockito.verify(userRepository, Mockito.times(1)).findWithRolesByLogin(ArgumentMatchers.anyString());
+        Mockito.verify(userRepository, Mockito.times(1)).save(oldUser);
+    }
 
-        Mockito.verify(roleRepository, Mockito.times(roles.size())).findByName(ArgumentMatchers.anyString());
-        Mockito.verify(userRepository, Mockito.times(roles.size()+1)).findUserByLogin(ArgumentMatchers.anyString());
+    /**
+     * Тест на изменение пользователя без фактических изменений: запись в БД не выполняется.
+     */
+    @Test
+    void updateUserWithoutChanges()
+    {
+        Set<Role> oldRoles = new HashSet<>();
+        oldRoles.add(new Role(1L, "Role1"));
+        Set<Role> roles = new HashSet<>();
+        roles.add(new Role(null,"Role1"));
+
+        String hash = passwordEncoder.encode("Passw0rd");
+        Mockito.when(userRepository.findPasswordByLogin("Login")).thenReturn(hash);
+        Mockito.when(userRepository.findWithRolesByLogin(ArgumentMatchers.anyString())).thenReturn(new User("Login", "Name", hash, oldRoles));
+        Mockito.when(roleRepository.findAllByNameIn(ArgumentMatchers.anyCollection())).thenReturn(Collections.singletonList(new Role(1L, "Role1")));
+        userService.updateUser(new User("Login", "Name", "Passw0rd", roles));
+
+        Mockito.verify(userRepository, Mockito.times(1)).findWithRolesByLogin(ArgumentMatchers.anyString());
         Mockito.verify(userRepository, Mockito.times(0)).save(ArgumentMatchers.any(User.class));
+        Mockito.verify(userRepository, Mockito.times(0)).insertRoleIfAbsent(ArgumentMatchers.anyString(), ArgumentMatchers.any());
     }
+
     /**
      * Тест на ошибку при изменении пользователя, из-за отсутствия пользователя с таким логином.
      */
@@ -346,15 +637,14 @@ class UserServiceImplTest {
         User user = new User ("Login", "NewName", "NewPassw0rd", null);
 
 
-        Mockito.when(userRepository.findUserByLogin(ArgumentMatchers.anyString())).thenReturn(null);
-        UserServiceException exception = Assertions.assertThrows(UserServiceException.class, () -> {
-            userService.updateUser(user);
-        });
+        Mockito.when(userRepository.findPasswordByLogin(ArgumentMatchers.anyString())).thenReturn(null);
+        ValidationResult result = userService.updateUser(user);
         List<String> errors = new ArrayList<>();
         errors.add("Пользователя не существует");
-        assertEquals(errors,exception.getErrors());
+        assertEquals(errors,result.getErrors());
         Mockito.verify(roleRepository, Mockito.times(0)).findByName(ArgumentMatchers.anyString());
-        Mockito.verify(userRepository, Mockito.times(1)).findUserByLogin(ArgumentMatchers.anyString());
+        Mockito.verify(userRepository, Mockito.times(1)).findPasswordByLogin(ArgumentMatchers.anyString());
+        Mockito.verify(userRepository, Mockito.times(0)).findWithRolesByLogin(ArgumentMatchers.anyString());
         Mockito.verify(userRepository, Mockito.times(0)).save(ArgumentMatchers.any(User.class));
     }
 
@@ -365,15 +655,13 @@ class UserServiceImplTest {
     void updateUserFailedPasswordWrong()
     {
         User user = new User ("Login", "NewName", "WrongPassword", null);
-        Mockito.when(userRepository.findUserByLogin(ArgumentMatchers.anyString())).thenReturn(new User());
-        UserServiceException exception = Assertions.assertThrows(UserServiceException.class, () -> {
-            userService.updateUser(user);
-        });
+        Mockito.when(userRepository.findPasswordByLogin(ArgumentMatchers.anyString())).thenReturn("0ldPassword");
+        ValidationResult result = userService.updateUser(user);
         List<String> errors = new ArrayList<>();
         errors.add("Password должен содержать хотя бы 1 заглавную букву и 1 цифру");
-        assertEquals(errors,exception.getErrors());
+        assertEquals(errors,result.getErrors());
         Mockito.verify(roleRepository, Mockito.times(0)).findByName(ArgumentMatchers.anyString());
-        Mockito.verify(userRepository, Mockito.times(1)).findUserByLogin(ArgumentMatchers.anyString());
+        Mockito.verify(userRepository, Mockito.times(0)).findWithRolesByLogin(ArgumentMatchers.anyString());
         Mockito.verify(userRepository, Mockito.times(0)).save(ArgumentMatchers.any(User.class));
     }
 
@@ -385,12 +673,7 @@ class UserServiceImplTest {
     {
         Role role = new Role(null, "Role");
 
-        try
-        {
-            userService.addRole(role);
-        } catch (UserServiceException e) {
-            e.printStackTrace();
-        }
+        assertTrue(userService.addRole(role).isSuccess());
         Mockito.verify(roleRepository, Mockito.times(1)).findByName(ArgumentMatchers.anyString());
         Mockito.verify(roleRepository, Mockito.times(0)).findById(ArgumentMatchers.anyLong());
         Mockito.verify(roleRepository, Mockito.times(1)).save(ArgumentMatchers.any(Role.class));
@@ -407,13 +690,11 @@ class UserServiceImplTest {
 
         Mockito.when(roleRepository.findByName(ArgumentMatchers.anyString())).thenReturn(new Role());
 
-        UserServiceException exception = Assertions.assertThrows(UserServiceException.class, () -> {
-            userService.addRole(role);
-        });
+        ValidationResult result = userService.addRole(role);
         List<String> errors = new ArrayList<>();
         errors.add("Роль уже существует");
 
-        assertEquals(errors, exception.getErrors());
+        assertEquals(errors, result.getErrors());
         Mockito.verify(roleRepository, Mockito.times(1)).findByName(ArgumentMatchers.anyString());
         Mockito.verify(roleRepository, Mockito.times(0)).findById(ArgumentMatchers.anyLong());
         Mockito.verify(roleRepository, Mockito.times(0)).save(ArgumentMatchers.any(Role.class));
@@ -428,13 +709,11 @@ class UserServiceImplTest {
         Role role = new Role(Long.valueOf(1), "Role");
         Mockito.when(roleRepository.findByName(ArgumentMatchers.anyString())).thenReturn(null);
         Mockito.when(roleRepository.getById(ArgumentMatchers.anyLong())).thenReturn(new Role());
-        UserServiceException exception = Assertions.assertThrows(UserServiceException.class, () -> {
-            userService.addRole(role);
-        });
+        ValidationResult result = userService.addRole(role);
         List<String> errors = new ArrayList<>();
         errors.add("Роль уже существует");
 
-        assertEquals(errors, exception.getErrors());
+        assertEquals(errors, result.getErrors());
         Mockito.verify(roleRepository, Mockito.times(1)).findByName(ArgumentMatchers.anyString());
         Mockito.verify(roleRepository, Mockito.times(1)).getById(ArgumentMatchers.anyLong());
         Mockito.verify(roleRepository, Mockito.times(0)).save(ArgumentMatchers.any(Role.class));
@@ -447,20 +726,19 @@ class UserServiceImplTest {
     void addRoleFailedRoleNameNull()
     {
         Role role = new Role(Long.valueOf(1), null);
-        UserServiceException exception = Assertions.assertThrows(UserServiceException.class, () -> {
-            userService.addRole(role);
-        });
+        ValidationResult result = userService.addRole(role);
         List<String> errors = new ArrayList<>();
         errors.add("Name не должен быть пустым");
 
-        assertEquals(errors, exception.getErrors());
+        assertEquals(errors, result.getErrors());
         Mockito.verify(roleRepository, Mockito.times(0)).findByName(ArgumentMatchers.anyString());
         Mockito.verify(roleRepository, Mockito.times(0)).findById(ArgumentMatchers.anyLong());
         Mockito.verify(roleRepository, Mockito.times(0)).save(ArgumentMatchers.any(Role.class));
 
     }
     /**
-     * Тест на успешное присвоение роли пользователю
+     * Тест на успешное присвоение роли пользователю.
+     * Сервис не выполняет SQL запросов сам, только через проверенные вызовы репозиториев.
      */
     @Test
     void addRoleToUser()
@@ -468,20 +746,18 @@ class UserServiceImplTest {
         String login = "Login";
         String roleName = "Role";
 
-        Mockito.when(userRepository.findUserByLogin(login)).thenReturn(new User("login","name","password",new HashSet<>()));
-        Mockito.when(roleRepository.findByName(roleName)).thenReturn(new Role());
+        Mockito.when(userRepository.findStoredLogin(login)).thenReturn(login);
+        Mockito.when(roleRepository.findByName(roleName)).thenReturn(new Role(1L, roleName));
+        Mockito.when(userRepository.insertRoleIfAbsent(login, 1L)).thenReturn(1);
 
 
 
-        try
-        {
-            userService.addRoleToUser(login,roleName);
-        } catch (UserServiceException e) {
-            e.printStackTrace();
-        }
-        Mockito.verify(userRepository, Mockito.times(1)).findUserByLogin(ArgumentMatchers.anyString());
+        assertStatementCount(sqlStatementCounter, 0, () -> assertTrue(userService.addRoleToUser(login,roleName).isSuccess()));
+        Mockito.verify(userRepository, Mockito.times(1)).findStoredLogin(ArgumentMatchers.anyString());
         Mockito.verify(roleRepository, Mockito.times(1)).findByName(ArgumentMatchers.anyString());
-        Mockito.verify(userRepository, Mockito.times(1)).save(ArgumentMatchers.any(User.class));
+        Mockito.verify(userRepository, Mockito.times(1)).insertRoleIfAbsent(ArgumentMatchers.anyString(), ArgumentMatchers.any());
+        Mockito.verify(userRepository, Mockito.times(1)).incrementVersion(login);
+        Mockito.verify(userRepository, Mockito.times(0)).save(ArgumentMatchers.any(User.class));
     }
 
     /**
@@ -492,14 +768,12 @@ class UserServiceImplTest {
     {
         String login = null;
         String roleName = "Role";
-        UserServiceException exception = Assertions.assertThrows(UserServiceException.class, () -> {
-            userService.addRoleToUser(login,roleName);
-        });
+        ValidationResult result = userService.addRoleToUser(login,roleName);
         List<String> errors = new ArrayList<>();
         errors.add("Логин не может быть пустым");
 
-        assertEquals(errors, exception.getErrors());
-        Mockito.verify(userRepository, Mockito.times(0)).findUserByLogin(ArgumentMatchers.anyString());
+        assertEquals(errors, result.getErrors());
+        Mockito.verify(userRepository, Mockito.times(0)).findStoredLogin(ArgumentMatchers.anyString());
         Mockito.verify(roleRepository, Mockito.times(0)).findByName(ArgumentMatchers.anyString());
         Mockito.verify(userRepository, Mockito.times(0)).save(ArgumentMatchers.any(User.class));
 
@@ -512,14 +786,12 @@ class UserServiceImplTest {
     {
         String login = "Login";
         String roleName = null;
-        UserServiceException exception = Assertions.assertThrows(UserServiceException.class, () -> {
-            userService.addRoleToUser(login,roleName);
-        });
+        ValidationResult result = userService.addRoleToUser(login,roleName);
         List<String> errors = new ArrayList<>();
         errors.add("RoleName не может быть пустым");
 
-        assertEquals(errors, exception.getErrors());
-        Mockito.verify(userRepository, Mockito.times(0)).findUserByLogin(ArgumentMatchers.anyString());
+        assertEquals(errors, result.getErrors());
+        Mockito.verify(userRepository, Mockito.times(0)).findStoredLogin(ArgumentMatchers.anyString());
         Mockito.verify(roleRepository, Mockito.times(0)).findByName(ArgumentMatchers.anyString());
         Mockito.verify(userRepository, Mockito.times(0)).save(ArgumentMatchers.any(User.class));
 
@@ -533,16 +805,14 @@ class UserServiceImplTest {
     {
         String login = "Login";
         String roleName = "Role";
-        Mockito.when(userRepository.findUserByLogin(login)).thenReturn(null);
+        Mockito.when(userRepository.findStoredLogin(login)).thenReturn(null);
         Mockito.when(roleRepository.findByName(roleName)).thenReturn(new Role());
-        UserServiceException exception = Assertions.assertThrows(UserServiceException.class, () -> {
-            userService.addRoleToUser(login,roleName);
-        });
+        ValidationResult result = userService.addRoleToUser(login,roleName);
         List<String> errors = new ArrayList<>();
         errors.add("Пользователя не существует");
 
-        assertEquals(errors, exception.getErrors());
-        Mockito.verify(userRepository, Mockito.times(1)).findUserByLogin(ArgumentMatchers.anyString());
+        assertEquals(errors, result.getErrors());
+        Mockito.verify(userRepository, Mockito.times(1)).findStoredLogin(ArgumentMatchers.anyString());
         Mockito.verify(roleRepository, Mockito.times(1)).findByName(ArgumentMatchers.anyString());
         Mockito.verify(userRepository, Mockito.times(0)).save(ArgumentMatchers.any(User.class));
 
@@ -555,16 +825,14 @@ class UserServiceImplTest {
     {
         String login = "Login";
         String roleName = "Role";
-        Mockito.when(userRepository.findUserByLogin(login)).thenReturn(new User());
+        Mockito.when(userRepository.findStoredLogin(login)).thenReturn(login);
         Mockito.when(roleRepository.findByName(roleName)).thenReturn(null);
-        UserServiceException exception = Assertions.assertThrows(UserServiceException.class, () -> {
-            userService.addRoleToUser(login,roleName);
-        });
+        ValidationResult result = userService.addRoleToUser(login,roleName);
         List<String> errors = new ArrayList<>();
         errors.add("Роли Role не существует");
 
-        assertEquals(errors, exception.getErrors());
-        Mockito.verify(userRepository, Mockito.times(1)).findUserByLogin(ArgumentMatchers.anyString());
+        assertEquals(errors, result.getErrors());
+        Mockito.verify(userRepository, Mockito.times(1)).findStoredLogin(ArgumentMatchers.anyString());
         Mockito.verify(roleRepository, Mockito.times(1)).findByName(ArgumentMatchers.anyString());
         Mockito.verify(userRepository, Mockito.times(0)).save(ArgumentMatchers.any(User.class));
 
@@ -578,21 +846,401 @@ class UserServiceImplTest {
 
         String login = "Login";
         String roleName = "Role";
-        Set<Role> roles = new HashSet<>();
-        roles.add(new Role(Long.valueOf(0), roleName));
 
-        Mockito.when(userRepository.findUserByLogin(login)).thenReturn(new User(login,null,null,roles));
+        Mockito.when(userRepository.findStoredLogin(login)).thenReturn(login);
         Mockito.when(roleRepository.findByName(roleName)).thenReturn(new Role(Long.valueOf(0), roleName));
-        UserServiceException exception = Assertions.assertThrows(UserServiceException.class, () -> {
-            userService.addRoleToUser(login,roleName);
-        });
+        Mockito.when(userRepository.insertRoleIfAbsent(login, 0L)).thenReturn(0);
+        ValidationResult result = userService.addRoleToUser(login,roleName);
         List<String> errors = new ArrayList<>();
         errors.add("У пользователя уже есть данная роль");
 
-        assertEquals(errors, exception.getErrors());
-        Mockito.verify(userRepository, Mockito.times(1)).findUserByLogin(ArgumentMatchers.anyString());
+        assertEquals(errors, result.getErrors());
+        Mockito.verify(userRepository, Mockito.times(2)).findStoredLogin(ArgumentMatchers.anyString());
         Mockito.verify(roleRepository, Mockito.times(1)).findByName(ArgumentMatchers.anyString());
         Mockito.verify(userRepository, Mockito.times(0)).save(ArgumentMatchers.any(User.class));
 
+        Mockito.verify(userRepository, Mockito.times(0)).incrementVersion(ArgumentMatchers.anyString());
+    }
+
+    /**
+     * Тест на добавление роли пользователю, которого удалили между проверкой и вставкой:
+     * insert ignore пропускает нарушение внешнего ключа, но ошибка не должна выдаваться за дубликат роли
+     */
+    @Test
+    void addRoleToUserFailedUserDeletedConcurrently()
+    {
+        String login = "Login";
+        String roleName = "Role";
+
+        Mockito.when(userRepository.findStoredLogin(login)).thenReturn(login, (String) null);
+        Mockito.when(roleRepository.findByName(roleName)).thenReturn(new Role(Long.valueOf(0), roleName));
+        Mockito.when(userRepository.insertRoleIfAbsent(login, 0L)).thenReturn(0);
+        ValidationResult result = userService.addRoleToUser(login,roleName);
+
+        assertEquals(Collections.singletonList("Пользователя не существует"), result.getErrors());
+        Mockito.verify(userRepository, Mockito.times(0)).incrementVersion(ArgumentMatchers.anyString());
+
+        Mockito.when(userRepository.findStoredLogin(login)).thenReturn(login);
+        Mockito.when(userRepository.insertRoleIfAbsent(login, 0L)).thenThrow(new DataIntegrityViolationException("FK"));
+        result = userService.addRoleToUser(login,roleName);
+
+        assertEquals(Collections.singletonList("Пользователя не существует"), result.getErrors());
+        Mockito.verify(userRepository, Mockito.times(0)).incrementVersion(ArgumentMatchers.anyString());
+    }
+
+    /**
+     * Тест на поиск пользователя вместе с ролями одним запросом
+     */
+    @Test
+    void findByLogin()
+    {
+        Set<Role> roles = new HashSet<>();
+        roles.add(new Role(1L, "Role"));
+        Mockito.when(userRepository.findWithRolesByLogin("Login")).thenReturn(new User("Login", "Name", "Passw0rd", roles));
+
+        UserWithRoles user = userService.findByLogin("Login");
+
+        assertEquals("Login", user.getLogin());
+        assertEquals("Name", user.getName());
+        assertEquals(roles, user.getRoles());
+        assertNull(userService.findByLogin("Unknown"));
+        Mockito.verify(userRepository, Mockito.times(2)).findWithRolesByLogin(ArgumentMatchers.anyString());
+        Mockito.verify(userRepository, Mockito.times(0)).findUserByLogin(ArgumentMatchers.anyString());
+    }
+
+    /**
+     * Тест на кэширование пользователя и несуществующего логина, и сброс кэша при изменении пользователя
+     */
+    @Test
+    void findByLoginCached()
+    {
+        Mockito.when(userRepository.findWithRolesByLogin("Login")).thenReturn(new User("Login", "Name", "Passw0rd", new HashSet<>()));
+        Mockito.when(userRepository.findUserByLogin("Login")).thenReturn(new User("Login", "Name", "Passw0rd", new HashSet<>()));
+        Mockito.when(userRepository.findPasswordByLogin("Login")).thenReturn("Passw0rd");
+
+        assertEquals("Name", userService.findByLogin("Login").getName());
+        assertEquals("Name", userService.findByLogin("Login").getName());
+        assertNull(userService.findByLogin("Unknown"));
+        assertNull(userService.findByLogin("Unknown"));
+        Mockito.verify(userRepository, Mockito.times(1)).findWithRolesByLogin("Login");
+        Mockito.verify(userRepository, Mockito.times(1)).findWithRolesByLogin("Unknown");
+
+        assertTrue(userService.updateUser(new User("Login", "NewName", null, null)).isSuccess());
+        assertTrue(userService.addUser(new User("Unknown", "Name", "Passw0rd", null)).isSuccess());
+        userService.findByLogin("Login");
+        userService.findByLogin("Unknown");
+        // updateUser сам загружает пользователя с ролями, поэтому обращений к "Login" три
+        Mockito.verify(userRepository, Mockito.times(3)).findWithRolesByLogin("Login");
+        Mockito.verify(userRepository, Mockito.times(2)).findWithRolesByLogin("Unknown");
+    }
+
+    /**
+     * Тест на сброс кэша пользователей при изменении по логину в другом регистре:
+     * найденный пользователь и несуществующий логин кэшируются по одному ключу для любого регистра
+     */
+    @Test
+    void findByLoginCachedCaseInsensitive()
+    {
+        User stored = new User("Alice", "Name", "Passw0rd", new HashSet<>());
+        Mockito.when(userRepository.findWithRolesByLogin(ArgumentMatchers.argThat(l -> l.equalsIgnoreCase("Alice")))).thenReturn(stored);
+        Mockito.when(userRepository.findPasswordByLogin(ArgumentMatchers.argThat(l -> l.equalsIgnoreCase("Alice")))).thenReturn("Passw0rd");
+
+        assertEquals("Name", userService.findByLogin("Alice").getName());
+        assertEquals("Name", userService.findByLogin("ALICE").getName());
+        Mockito.verify(userRepository, Mockito.times(1)).findWithRolesByLogin(ArgumentMatchers.anyString());
+
+        assertTrue(userService.updateUser(new User("alice", "NewName", null, null)).isSuccess());
+        assertEquals("NewName", userService.findByLogin("ALICE").getName());
+
+        Mockito.when(userRepository.findStoredLogin("aLiCe")).thenReturn("Alice");
+        Mockito.when(userRepository.deleteByLoginReturningCount(ArgumentMatchers.anyString())).thenReturn(1);
+        assertTrue(userService.deleteUser("aLiCe").isSuccess());
+        Mockito.when(userRepository.findWithRolesByLogin(ArgumentMatchers.anyString())).thenReturn(null);
+        assertNull(userService.findByLogin("Alice"));
+
+        assertNull(userService.findByLogin("bob"));
+        assertTrue(userService.addUser(new User("Bob", "Name", "Passw0rd", null)).isSuccess());
+        Mockito.when(userRepository.findWithRolesByLogin(ArgumentMatchers.anyString())).thenReturn(new User("Bob", "Name", "Passw0rd", new HashSet<>()));
+        assertEquals("Bob", userService.findByLogin("bob").getLogin());
+    }
+
+    /**
+     * Тест на получение первой страницы пользователей
+     */
+    @Test
+    void getUsersFirstPage()
+    {
+        List<UserWithoutRoles> page = new ArrayList<>();
+        page.add(new UserWithoutRoles("Login", "Name"));
+        Mockito.when(userRepository.findFirstPage(ArgumentMatchers.any(Pageable.class))).thenReturn(page);
+
+        assertEquals(page, userService.getUsersPage(null, 10));
+        Mockito.verify(userRepository, Mockito.times(1)).findFirstPage(PageRequest.of(0, 10));
+        Mockito.verify(userRepository, Mockito.times(0)).findPageAfter(ArgumentMatchers.anyString(), ArgumentMatchers.any(Pageable.class));
+        Mockito.verify(userRepository, Mockito.times(0)).findAll();
+    }
+
+    /**
+     * Тест на получение следующей страницы пользователей после логина с ограничением размера страницы
+     */
+    @Test
+    void getUsersPageAfterLogin()
+    {
+        userService.getUsersPage("Login", UserServiceImpl.MAX_PAGE_SIZE + 1);
+
+        Mockito.verify(userRepository, Mockito.times(1)).findPageAfter("Login", PageRequest.of(0, UserServiceImpl.MAX_PAGE_SIZE));
+        Mockito.verify(userRepository, Mockito.times(0)).findFirstPage(ArgumentMatchers.any(Pageable.class));
+        Mockito.verify(userRepository, Mockito.times(0)).findAll();
+    }
+
+    /**
+     * Тест на получение всех пользователей: используется запрос только логинов и имен, сущности не загружаются
+     */
+    @Test
+    void getAllUsersWithoutRoles()
+    {
+        List<UserWithoutRoles> users = Arrays.asList(new UserWithoutRoles("Login1", "Name1"), new UserWithoutRoles("Login2", "Name2"));
+        Mockito.when(userRepository.findAllUsersWithoutRoles()).thenReturn(users);
+
+        assertEquals(users, userService.getAllUsersWithoutRoles());
+        Mockito.verify(userRepository, Mockito.times(0)).findAll();
+    }
+
+    /**
+     * Тест на выгрузку пользователей: используется размер порции только для выгрузки, поток закрыт
+     */
+    @Test
+    void exportUsers()
+    {
+        AtomicBoolean closed = new AtomicBoolean(false);
+        Mockito.when(userRepository.streamAllUsersWithoutRoles(ArgumentMatchers.anyInt())).thenReturn(
+                Stream.of(new UserWithoutRoles("Login1", "Name1"), new UserWithoutRoles("Login2", "Name2"))
+                        .onClose(() -> closed.set(true)));
+
+        List<UserWithoutRoles> exported = new ArrayList<>();
+        userService.exportUsers(exported::add);
+
+        assertEquals(2, exported.size());
+        assertTrue(closed.get());
+        Mockito.verify(userRepository, Mockito.times(1)).streamAllUsersWithoutRoles(Integer.MIN_VALUE);
+        Mockito.verify(userRepository, Mockito.times(0)).streamAllUsersWithoutRoles();
+    }
+
+    /**
+     * Тест на потоковую выгрузку пользователей: все пользователи переданы обработчику, поток закрыт
+     */
+    @Test
+    void forEachUserWithoutRoles()
+    {
+        AtomicBoolean closed = new AtomicBoolean(false);
+        Mockito.when(userRepository.streamAllUsersWithoutRoles()).thenReturn(
+                Stream.of(new UserWithoutRoles("Login1", "Name1"), new UserWithoutRoles("Login2", "Name2"))
+                        .onClose(() -> closed.set(true)));
+
+        List<UserWithoutRoles> exported = new ArrayList<>();
+        userService.forEachUserWithoutRoles(exported::add);
+
+        assertEquals(2, exported.size());
+        assertTrue(closed.get());
+        Mockito.verify(userRepository, Mockito.times(0)).findAll();
+    }
+
+    /**
+     * Тест на массовое добавление пользователей: роли и занятые логины ищутся одним запросом,
+     * пользователи с ошибками не сохраняются, ошибки возвращаются по номеру пользователя
+     */
+    @Test
+    void importUsers()
+    {
+        Set<Role> roleSet = new HashSet<>();
+        roleSet.add(new Role(null, "Role"));
+        Set<Role> wrongRoleSet = new HashSet<>();
+        wrongRoleSet.add(new Role(null, "WrongRole"));
+        List<User> users = new ArrayList<>();
+        users.add(new User("Login1", "Name", "Passw0rd", roleSet));
+        users.add(new User("Login2", "Name", "password", null));
+        users.add(new User("Login3", "Name", "Passw0rd", wrongRoleSet));
+        users.add(new User("Login1", "Name", "Passw0rd", null));
+        users.add(new User("Taken", "Name", "Passw0rd", null));
+        users.add(new User("Login4", "Name", "Passw0rd", roleSet));
+
+        Mockito.when(roleRepository.findAllByNameIn(ArgumentMatchers.anyCollection())).thenReturn(Collections.singletonList(new Role(1L, "Role")));
+        Mockito.when(userRepository.findExistingLogins(ArgumentMatchers.anyCollection())).thenReturn(Collections.singletonList("Taken"));
+
+        Map<Integer, List<String>> errors = userService.importUsers(users);
+
+        Map<Integer, List<String>> expected = new TreeMap<>();
+        expected.put(1, Collections.singletonList("Password должен содержать хотя бы 1 заглавную букву и 1 цифру"));
+        expected.put(2, Collections.singletonList("Роли WrongRole не существует"));
+        expected.put(3, Collections.singletonList("Login занят"));
+        expected.put(4, Collections.singletonList("Login занят"));
+        assertEquals(expected, errors);
+        Mockito.verify(userRepository, Mockito.times(1)).persistAll(Arrays.asList(users.get(0), users.get(5)), 500);
+        assertTrue(passwordEncoder.matches("Passw0rd", users.get(0).getPassword()));
+        assertTrue(passwordEncoder.matches("Passw0rd", users.get(5).getPassword()));
+        assertEquals("Passw0rd", users.get(3).getPassword());
+        Mockito.verify(userRepository, Mockito.times(1)).findExistingLogins(ArgumentMatchers.anyCollection());
+        Mockito.verify(userRepository, Mockito.times(0)).findUserByLogin(ArgumentMatchers.anyString());
+        Mockito.verify(userRepository, Mockito.times(0)).save(ArgumentMatchers.any(User.class));
+        Mockito.verify(roleRepository, Mockito.times(1)).findAllByNameIn(ArgumentMatchers.anyCollection());
+        Mockito.verify(roleRepository, Mockito.times(0)).findByName(ArgumentMatchers.anyString());
+    }
+
+    /**
+     * Тест на массовое добавление по пачкам: пароли всех пачек хэшируются до сохранения первой пачки,
+     * а если логин пачки занят параллельным запросом, то ее пользователи сохраняются по одному
+     */
+    @Test
+    void importUsersHashesBeforePersistingChunks()
+    {
+        UserServiceImpl target = AopTestUtils.getTargetObject(userService);
+        ReflectionTestUtils.setField(target, "importChunkSize", 2);
+        try {
+            List<User> users = new ArrayList<>();
+            users.add(new User("Login1", "Name", "Passw0rd", null));
+            users.add(new User("Login2", "Name", "Passw0rd", null));
+            users.add(new User("Login3", "Name", "Passw0rd", null));
+            users.add(new User("Taken", "Name", "Passw0rd", null));
+            List<Boolean> allHashed = new ArrayList<>();
+            DataIntegrityViolationException duplicate = new DataIntegrityViolationException("Duplicate entry",
+                    new SQLException("Duplicate entry", "23000", 1062));
+            Mockito.doAnswer(invocation -> {
+                allHashed.add(users.stream().allMatch(user -> user.getPassword().startsWith("{bcrypt}")));
+                if(invocation.<List<User>>getArgument(0).contains(users.get(3)))
+                {
+                    throw duplicate;
+                }
+                return null;
+            }).when(userRepository).persistAll(ArgumentMatchers.anyList(), ArgumentMatchers.anyInt());
+            Mockito.doThrow(duplicate).when(userRepository).persist(ArgumentMatchers.argThat(user -> user.getLogin().equals("Taken")));
+
+            Map<Integer, List<String>> errors = userService.importUsers(users);
+
+            assertEquals(Collections.singletonMap(3, Collections.singletonList("Login занят")), errors);
+            assertEquals(Arrays.asList(true, true), allHashed);
+            Mockito.verify(userRepository, Mockito.times(1)).persistAll(Arrays.asList(users.get(0), users.get(1)), 2);
+            Mockito.verify(userRepository, Mockito.times(2)).persist(ArgumentMatchers.any(User.class));
+            assertTrue(loginFilter.mightExist("Login3"));
+        } finally {
+            ReflectionTestUtils.setField(target, "importChunkSize", 500);
+        }
+    }
+
+    /**
+     * Тест на массовое добавление: логин пользователя с ошибками не считается занятым для следующих пользователей списка
+     */
+    @Test
+    void importUsersInvalidRowDoesNotTakeLogin()
+    {
+        List<User> users = new ArrayList<>();
+        users.add(new User("Login", "Name", "password", null));
+        users.add(new User("Login", "Name", "Passw0rd", null));
+
+        Map<Integer, List<String>> errors = userService.importUsers(users);
+
+        assertEquals(Collections.singleton(0), errors.keySet());
+        Mockito.verify(userRepository, Mockito.times(1)).persistAll(Collections.singletonList(users.get(1)), 500);
+    }
+
+    /**
+     * Тест на кэширование ролей: повторный поиск роли не обращается к БД, добавленная роль сразу попадает в кэш
+     */
+    @Test
+    void roleCache()
+    {
+        Mockito.when(roleRepository.findByName("Role")).thenReturn(new Role(1L, "Role"));
+
+        assertEquals(new Role(1L, "Role"), roleCache.findByName("Role"));
+        assertEquals(new Role(1L, "Role"), roleCache.findByName("Role"));
+        assertNull(roleCache.findByName("Other"));
+        assertTrue(userService.addRole(new Role(null, "NewRole")).isSuccess());
+        assertEquals(new Role(null, "NewRole"), roleCache.findByName("NewRole"));
+
+        assertEquals(2, roleCache.getHits());
+        assertEquals(3, roleCache.getMisses());
+        Mockito.verify(roleRepository, Mockito.times(1)).findByName("Role");
+        Mockito.verify(roleRepository, Mockito.times(1)).findByName("Other");
+        Mockito.verify(roleRepository, Mockito.times(1)).findByName("NewRole");
+    }
+
+    /**
+     * Тест на снимок списка пользователей: перестраивается только после изменения пользователей
+     */
+    @Test
+    void userListSnapshotRebuiltAfterChange() throws IOException
+    {
+        Mockito.when(userRepository.streamAllUsersWithoutRoles()).thenAnswer(invocation -> Stream.of(new UserWithoutRoles("Login", "Name")));
+
+        assertTrue(userService.addUser(new User("Login", "Name", "Passw0rd", null)).isSuccess());
+        userListSnapshot.rebuildIfChanged();
+        UserListSnapshot.Snapshot snapshot = userListSnapshot.getCurrent();
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(snapshot.getGzippedJson()))) {
+            assertEquals("[{\"name\":\"Name\",\"login\":\"Login\"}]", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+
+        userListSnapshot.rebuildIfChanged();
+        assertSame(snapshot, userListSnapshot.getCurrent());
+
+        Mockito.when(userRepository.findStoredLogin("Login")).thenReturn("Login");
+        Mockito.when(userRepository.deleteByLoginReturningCount("Login")).thenReturn(1);
+        assertTrue(userService.deleteUser("Login").isSuccess());
+        userListSnapshot.rebuildIfChanged();
+        assertNotEquals(snapshot.getETag(), userListSnapshot.getCurrent().getETag());
+    }
+
+    /**
+     * Тест на то, что после перезапуска снимок с тем же значением счетчика изменений получает другой ETag,
+     * так как счетчик после перезапуска начинается заново
+     */
+    @Test
+    void userListSnapshotETagChangesAfterRestart()
+    {
+        Mockito.when(userRepository.streamAllUsersWithoutRoles()).thenAnswer(invocation -> Stream.empty());
+
+        UserListSnapshot first = new UserListSnapshot(userService, new UserChangeCounter(), new ObjectMapper());
+        UserListSnapshot restarted = new UserListSnapshot(userService, new UserChangeCounter(), new ObjectMapper());
+        first.rebuildIfChanged();
+        restarted.rebuildIfChanged();
+        assertEquals(first.getCurrent().getVersion(), restarted.getCurrent().getVersion());
+        assertNotEquals(first.getCurrent().getETag(), restarted.getCurrent().getETag());
+    }
+
+    /**
+     * Тест на индекс ролей: обновляется при добавлении пользователя, роли и удалении пользователя,
+     * поиск по ролям работает как пересечение и объединение с пагинацией
+     */
+    @Test
+    void roleMembershipIndex()
+    {
+        Mockito.when(roleRepository.findAllByNameIn(ArgumentMatchers.anyCollection())).thenReturn(Arrays.asList(new Role(1L, "A"), new Role(2L, "B")));
+        Mockito.when(roleRepository.findByName("B")).thenReturn(new Role(2L, "B"));
+        Mockito.when(userRepository.insertRoleIfAbsent(ArgumentMatchers.anyString(), ArgumentMatchers.any())).thenReturn(1);
+        Mockito.when(userRepository.findStoredLogin(ArgumentMatchers.anyString())).thenAnswer(invocation -> invocation.getArgument(0));
+        Mockito.when(userRepository.deleteByLoginReturningCount(ArgumentMatchers.anyString())).thenReturn(1);
+
+        assertTrue(userService.addUser(new User("Login1", "Name", "Passw0rd", new HashSet<>(Arrays.asList(new Role(null, "A"), new Role(null, "B"))))).isSuccess());
+        assertTrue(userService.addUser(new User("Login2", "Name", "Passw0rd", Collections.singleton(new Role(null, "A")))).isSuccess());
+        assertTrue(userService.addUser(new User("Login3", "Name", "Passw0rd", Collections.singleton(new Role(null, "A")))).isSuccess());
+        assertTrue(userService.addRoleToUser("Login3", "B").isSuccess());
+
+        assertTrue(userService.hasRole("Login1", "B"));
+        assertFalse(userService.hasRole("Login2", "B"));
+        assertFalse(userService.hasRole("Unknown", "A"));
+        assertEquals(new UsersPage(2, Arrays.asList("Login1", "Login3")), userService.findUsersByRoles(Arrays.asList("A", "B"), true, 0, 10));
+        assertEquals(new UsersPage(3, Collections.singletonList("Login2")), userService.findUsersByRoles(Arrays.asList("A", "B"), false, 1, 1));
+        assertEquals(new UsersPage(0, Collections.emptyList()), userService.findUsersByRoles(Collections.singletonList("Other"), false, 0, 10));
+
+        assertTrue(userService.deleteUser("Login1").isSuccess());
+        assertFalse(userService.hasRole("Login1", "A"));
+        assertEquals(new UsersPage(1, Collections.singletonList("Login3")), userService.findUsersByRoles(Arrays.asList("A", "B"), true, 0, 10));
+
+        // логин в БД сравнивается без учета регистра, поэтому в индекс попадает и из индекса удаляется сохраненный логин
+        Mockito.when(userRepository.findStoredLogin("login2")).thenReturn("Login2");
+        Mockito.when(userRepository.findStoredLogin("LOGIN3")).thenReturn("Login3");
+        assertTrue(userService.addRoleToUser("login2", "B").isSuccess());
+        assertTrue(userService.hasRole("Login2", "B"));
+        assertTrue(userService.deleteUser("LOGIN3").isSuccess());
+        assertEquals(new UsersPage(1, Collections.singletonList("Login2")), userService.findUsersByRoles(Arrays.asList("A", "B"), true, 0, 10));
+        Mockito.verify(userRepository, Mockito.times(0)).hasRole(ArgumentMatchers.anyString(), ArgumentMatchers.anyString());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,50 @@
+package com.github.gimazdo.testcasecodmark.Util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CharacterClassPasswordPolicyTest {
+
+    /**
+     * Паттерн, который использовался для проверки пароля до {@link CharacterClassPasswordPolicy}
+     */
+    private static final Pattern legacyPasswordPattern = Pattern.compile("^(?=.*[A-Z])(?=.*\\d).+$");
+
+    /**
+     * Тест на совпадение правила по умолчанию с прежним регулярным выражением
+     */
+    @Test
+    void defaultPolicyMatchesLegacyPattern()
+    {
+        String[] passwords = {
+                "", "a", "A", "1", "A1", "1A", "Passw0rd", "password", "PASSWORD", "12345678", "passw0rd", "Password",
+                "Passw0rd\n", "\nPassw0rd", "Pass\rw0rd", "Pass\u0085w0rd", "Pass\u2028w0rd", "Pass\u2029w0rd", "Pass\tw0rd",
+                "Пароль1", "ПарольA1", "Passw\u0661rd", "\uff21\uff11abc", "A 1", "!@#$A%^&1", "\ud83d\ude00A1"
+        };
+        for(String password: passwords)
+        {
+            assertEquals(legacyPasswordPattern.matcher(password).matches(), CharacterClassPasswordPolicy.DEFAULT.check(password), password);
+        }
+        assertEquals("Password должен содержать хотя бы 1 заглавную букву и 1 цифру", CharacterClassPasswordPolicy.DEFAULT.getErrorMessage());
+    }
+
+    /**
+     * Тест на настраиваемые правила длины и классов символов
+     */
+    @Test
+    void configuredPolicy()
+    {
+        PasswordPolicy policy = new CharacterClassPasswordPolicy(8, true, true, true, true, "Error");
+
+        assertTrue(policy.check("Passw0rd!"));
+        assertFalse(policy.check("Pa0rd!"));
+        assertFalse(policy.check("Passw0rdd"));
+        assertFalse(policy.check("PASSW0RD!"));
+        assertFalse(policy.check("passw0rd!"));
+        assertFalse(policy.check("Password!"));
+        assertEquals("Error", policy.getErrorMessage());
+    }
+}
@@ -0,0 +1,64 @@
+package com.github.gimazdo.testcasecodmark.Util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CountingBloomFilterTest {
+
+    /**
+     * Тест на отсутствие ложных отрицательных ответов для добавленных строк
+     */
+    @Test
+    void addedValuesAreAlwaysFound()
+    {
+        CountingBloomFilter filter = new CountingBloomFilter(10000, 0.01);
+        for(int i = 0; i < 10000; i++)
+        {
+            filter.add("Login" + i);
+        }
+        for(int i = 0; i < 10000; i++)
+        {
+            assertTrue(filter.mightContain("Login" + i));
+        }
+    }
+
+    /**
+     * Тест на долю ложных положительных ответов при ожидаемом количестве строк
+     */
+    @Test
+    void falsePositiveRate()
+    {
+        CountingBloomFilter filter = new CountingBloomFilter(10000, 0.01);
+        for(int i = 0; i < 10000; i++)
+        {
+            filter.add("Login" + i);
+        }
+        int falsePositives = 0;
+        for(int i = 0; i < 10000; i++)
+        {
+            if(filter.mightContain("Other" + i))
+            {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 300, "False positives: " + falsePositives);
+    }
+
+    /**
+     * Тест на удаление строки из фильтра без влияния на остальные строки
+     */
+    @Test
+    void remove()
+    {
+        CountingBloomFilter filter = new CountingBloomFilter(1000, 0.01);
+        filter.add("Login");
+        filter.add("Other");
+        filter.remove("Login");
+
+        assertFalse(filter.mightContain("Login"));
+        assertTrue(filter.mightContain("Other"));
+        filter.clear();
+        assertFalse(filter.mightContain("Other"));
+    }
+}